@@ -0,0 +1,75 @@
+package apps;
+
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import structures.AddTagFilter;
+import structures.HtmlHandler;
+import structures.HtmlTokenizer;
+import structures.HtmlWriter;
+import structures.RemoveTagFilter;
+import structures.ReplaceTagFilter;
+
+/**
+ * Applies tag transformations to an HTML file as it is read, without building a tree, so
+ * that files of any size can be transformed in memory bounded by their depth of nesting.
+ * The transformations are applied in the order given, as if each one had been applied to
+ * the tree of the result of the one before:
+ *
+ *   java apps.DOMStream [-s] in.html out.html [r oldTag newTag] [d tag] [a word tag] ...
+ *
+ * An output file of - writes to standard output. With -s, tags are removed and added in the
+ * strict mode of the filters, as Tree.removeTag and Tree.addTag do.
+ */
+public class DOMStream {
+
+	/**
+	 * @param args Optional -s, input file, output file, then transformations
+	 */
+	public static void main(String[] args)
+	throws IOException {
+		boolean strict = args.length > 0 && args[0].equals("-s");
+		int a = strict ? 1 : 0;
+		if (args.length < a+2) {
+			System.err.println("Usage: java apps.DOMStream [-s] in.html out.html [r oldTag newTag] [d tag] [a word tag] ...");
+			System.exit(1);
+		}
+		Writer out = args[a+1].equals("-")
+				? new BufferedWriter(new OutputStreamWriter(System.out))
+				: new BufferedWriter(new FileWriter(args[a+1]));
+		try (Reader in = new FileReader(args[a])) {
+			HtmlHandler chain = chain(args, a+2, strict, new HtmlWriter(out));
+			new HtmlTokenizer(in).parse(chain);
+		} finally {
+			if (args[a+1].equals("-")) {
+				out.flush();
+			} else {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * Builds the chain of filters for the transformations from args[i] on, ending in the
+	 * given handler.
+	 */
+	private static HtmlHandler chain(String[] args, int i, boolean strict, HtmlHandler last) {
+		if (i == args.length) {
+			return last;
+		}
+		String op = args[i];
+		if (op.equals("r") && i+2 < args.length) {
+			return new ReplaceTagFilter(args[i+1], args[i+2], chain(args, i+3, strict, last));
+		} else if (op.equals("d") && i+1 < args.length) {
+			return new RemoveTagFilter(args[i+1], strict, chain(args, i+2, strict, last));
+		} else if (op.equals("a") && i+2 < args.length) {
+			return new AddTagFilter(args[i+1], args[i+2], strict, chain(args, i+3, strict, last));
+		}
+		throw new IllegalArgumentException("Bad transformation at argument " + (i+1) + ": " + op);
+	}
+}
@@ -0,0 +1,193 @@
+package apps;
+
+import java.io.StringReader;
+import java.util.Scanner;
+
+import structures.Tree;
+
+/**
+ * Builds very wide and very deep trees and runs every Tree operation on them, checking that
+ * none of them runs out of stack and that the results are consistent:
+ *
+ *   java apps.DOMStress [rows] [depth]
+ *
+ * The wide tree is a table of the given number of rows (default 200000), the deep tree a list
+ * nested to the given depth (default 100000). Then many edits are run on the wide tree with
+ * and without the tag index, to check that both give the same result and to time them.
+ * Exits with status 1 if a check fails.
+ */
+public class DOMStress {
+
+	static int failures = 0;
+
+	/**
+	 * @param args Number of rows, depth of nesting
+	 */
+	public static void main(String[] args) {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		wide(rows);
+		deep(depth);
+		indexed(rows);
+		System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * A table of rows with two columns, the first holding the word "word".
+	 */
+	static void wide(int rows) {
+		StringBuilder sb = new StringBuilder("<html>\n<body>\n<table>\n");
+		for (int r=0; r < rows; r++) {
+			sb.append("<tr>\n<td>\nR").append(r).append("C0 word\n</td>\n<td>\nR").append(r).append("C1\n</td>\n</tr>\n");
+		}
+		sb.append("</table>\n</body>\n</html>\n");
+		String html = sb.toString();
+		System.out.println("Wide: " + rows + " rows");
+		Tree tree = build(html);
+		check("getHTML gives back the input", tree.getHTML().equals(html));
+
+		long t0 = System.nanoTime();
+		tree.replaceTag("td", "th");
+		tree.replaceTag("th", "td");
+		time("replaceTag twice", t0);
+		check("replacing a tag and back gives back the input", tree.getHTML().equals(html));
+
+		t0 = System.nanoTime();
+		tree.boldRow(rows);
+		time("boldRow", t0);
+		check("last row is bold in both columns", count(tree.getHTML(), "<b>") == 2);
+
+		t0 = System.nanoTime();
+		tree.addTag("word", "em");
+		time("addTag", t0);
+		check("every row has its word tagged", count(tree.getHTML(), "<em>") == rows);
+
+		t0 = System.nanoTime();
+		tree.removeTag("tr");
+		tree.removeTag("em");
+		tree.removeTag("b");
+		time("removeTag three times", t0);
+		String out = tree.getHTML();
+		check("removed tags are gone", count(out, "<tr>") == 0 && count(out, "<em>") == 0 && count(out, "<b>") == 0);
+		check("columns are kept", count(out, "<td>") == 2*rows);
+		check("the rebuilt tree gives back its input", rebuild(out).getHTML().equals(out));
+	}
+
+	/**
+	 * Lists nested in items to the given depth, alternating between ol and ul, with a line of
+	 * text in each item after the list nested in it.
+	 */
+	static void deep(int depth) {
+		StringBuilder sb = new StringBuilder("<html>\n<body>\n");
+		for (int d=0; d < depth; d++) {
+			sb.append(d % 2 == 0 ? "<ol>\n" : "<ul>\n").append("<li>\n");
+		}
+		for (int d=depth-1; d >= 0; d--) {
+			sb.append("level ").append(d).append(" item\n</li>\n").append(d % 2 == 0 ? "</ol>\n" : "</ul>\n");
+		}
+		sb.append("</body>\n</html>\n");
+		String html = sb.toString();
+		System.out.println("Deep: " + depth + " levels");
+		Tree tree = build(html);
+		check("getHTML gives back the input", tree.getHTML().equals(html));
+
+		long t0 = System.nanoTime();
+		tree.replaceTag("li", "dd");
+		tree.replaceTag("dd", "li");
+		time("replaceTag twice", t0);
+		check("replacing a tag and back gives back the input", tree.getHTML().equals(html));
+
+		t0 = System.nanoTime();
+		tree.addTag("item", "b");
+		time("addTag", t0);
+		check("every item is tagged", count(tree.getHTML(), "<b>") == depth);
+
+		t0 = System.nanoTime();
+		tree.removeTag("ol");
+		time("removeTag", t0);
+		String out = tree.getHTML();
+		check("removed lists are gone", count(out, "<ol>") == 0);
+		check("items of removed lists are paragraphs", count(out, "<p>") == (depth+1)/2 && count(out, "<li>") == depth/2);
+		check("the rebuilt tree gives back its input", rebuild(out).getHTML().equals(out));
+	}
+
+	/**
+	 * Bolds a hundred rows of a wide table, then renames the bold tags back and forth a few
+	 * hundred times and removes them, on one tree with the tag index and one without.
+	 */
+	static void indexed(int rows) {
+		StringBuilder sb = new StringBuilder("<html>\n<body>\n<table>\n");
+		for (int r=0; r < rows; r++) {
+			sb.append("<tr>\n<td>\nR").append(r).append("C0\n</td>\n<td>\nR").append(r).append("C1\n</td>\n</tr>\n");
+		}
+		sb.append("</table>\n</body>\n</html>\n");
+		String html = sb.toString();
+		System.out.println("Edits on " + rows + " rows, without and with the tag index");
+		String[] out = new String[2];
+		for (int i=0; i < 2; i++) {
+			Tree tree = new Tree(new StringReader(html));
+			if (i == 1) {
+				tree.enableIndex();
+			}
+			tree.build();
+			long t0 = System.nanoTime();
+			for (int r=1; r <= 100; r++) {
+				tree.boldRow(r);
+			}
+			for (int e=0; e < 300; e++) {
+				if (e % 2 == 0) {
+					tree.replaceTag("b", "strong");
+				} else {
+					tree.replaceTag("strong", "b");
+				}
+			}
+			tree.removeTag("b");
+			time((i == 1 ? "with" : "without") + " index: 100 boldRow, 300 replaceTag, removeTag", t0);
+			out[i] = tree.getHTML();
+		}
+		check("both give the same result", out[0].equals(out[1]));
+		check("the result is the input", out[0].equals(html));
+	}
+
+	static Tree build(String html) {
+		long t0 = System.nanoTime();
+		Tree tree = new Tree(new StringReader(html));
+		tree.build();
+		time("build", t0);
+		return tree;
+	}
+
+	/**
+	 * Builds a tree from getHTML output line by line, which keeps the spaces that addTag and
+	 * removeTag leave at the ends of text.
+	 */
+	static Tree rebuild(String html) {
+		long t0 = System.nanoTime();
+		Tree tree = new Tree(new Scanner(html));
+		tree.build();
+		time("rebuild", t0);
+		return tree;
+	}
+
+	static int count(String s, String sub) {
+		int n = 0;
+		for (int i=s.indexOf(sub); i >= 0; i=s.indexOf(sub, i+sub.length())) {
+			n++;
+		}
+		return n;
+	}
+
+	static void time(String what, long t0) {
+		System.out.printf("\t%s: %.1f ms%n", what, (System.nanoTime()-t0)/1e6);
+	}
+
+	static void check(String what, boolean ok) {
+		System.out.println("\t" + (ok ? "ok: " : "FAILED: ") + what);
+		if (!ok) {
+			failures++;
+		}
+	}
+}
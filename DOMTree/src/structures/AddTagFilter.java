@@ -0,0 +1,233 @@
+package structures;
+
+import java.io.IOException;
+import java.util.StringTokenizer;
+
+/**
+ * Adds a tag around all occurrences of a word in text, as Tree.addTag is meant to do on a
+ * tree. A word matches regardless of case, and may be followed by one punctuation mark out of
+ * . , ? ! : ; which is then tagged along with it. The text before and after the word stays as
+ * text; any that is blank is dropped.
+ *
+ * In strict mode the filter does what Tree.addTag does instead. A line of text that is just
+ * the word is tagged whole. In a longer line, Tree.addTag splits at the first place the word
+ * appears, even inside a longer word, and keeps the text before it even if it is empty; for
+ * the word cat, "cats cat" gives an empty text, the tagged cat and "s cat". It then skips
+ * the tags and text that follow that line under the same tag, so words there are not tagged.
+ * An empty tag named like the word is turned into the added tag holding the word.
+ *
+ * Where Tree.addTag throws or loses content, the filter keeps the content even in strict mode:
+ * <ul>
+ * <li>Tree.addTag throws a StringIndexOutOfBoundsException on a line that holds the word
+ *     more than once, such as "cat and cat". The filter tags every occurrence.</li>
+ * <li>When the tagged word is followed by more text in its line, Tree.addTag drops
+ *     everything that follows that line under the same tag from the tree. The filter keeps
+ *     it, untagged.</li>
+ * <li>Tree.addTag turns a tag named like the word that has something under it into the
+ *     added tag holding just the word, and drops what was under it. The filter leaves the
+ *     tag alone.</li>
+ * </ul>
+ *
+ */
+public class AddTagFilter extends HtmlFilter {
+
+	private static final String PUNCTUATION = ".,?!:;";
+
+	private final String word, tag;
+
+	/**
+	 * Whether to do what Tree.addTag does
+	 */
+	private final boolean strict;
+
+	/**
+	 * Number of open tags
+	 */
+	private int depth;
+
+	/**
+	 * In strict mode, the depth of the tag under which the rest is passed on untouched, or -1
+	 */
+	private int skipDepth = -1;
+
+	/**
+	 * In strict mode, a start tag named like the word that has not been passed on, until it
+	 * is known whether anything is under it; null if none
+	 */
+	private String pending;
+
+	/**
+	 * Initializes this filter to tag whole words
+	 *
+	 * @param word Word around which tag is to be added
+	 * @param tag Tag to be added
+	 * @param next Next handler in the chain
+	 */
+	public AddTagFilter(String word, String tag, HtmlHandler next) {
+		this(word, tag, false, next);
+	}
+
+	/**
+	 * Initializes this filter
+	 *
+	 * @param word Word around which tag is to be added
+	 * @param tag Tag to be added
+	 * @param strict Whether to do what Tree.addTag does
+	 * @param next Next handler in the chain
+	 */
+	public AddTagFilter(String word, String tag, boolean strict, HtmlHandler next) {
+		super(next);
+		this.word = word;
+		this.tag = tag;
+		this.strict = strict;
+	}
+
+	public void startTag(String name) throws IOException {
+		flushPending();
+		if (strict && skipDepth < 0 && matches(name)) {
+			pending = name;
+			return;
+		}
+		depth++;
+		next.startTag(name);
+	}
+
+	public void endTag(String name) throws IOException {
+		if (pending != null) {
+			tagged(pending);
+			pending = null;
+			return;
+		}
+		if (depth == skipDepth) {
+			skipDepth = -1;
+		}
+		depth--;
+		next.endTag(name);
+	}
+
+	public void endDocument() throws IOException {
+		flushPending();
+		next.endDocument();
+	}
+
+	public void text(String text) throws IOException {
+		flushPending();
+		if (!strict) {
+			tagWords(text);
+		} else if (skipDepth >= 0) {
+			next.text(text);
+		} else {
+			tagFirst(text);
+		}
+	}
+
+	/**
+	 * Tags every whole word in the text.
+	 */
+	private void tagWords(String text) throws IOException {
+		int n = text.length(), wl = word.length();
+		int last = 0, i = 0;
+		while (i < n) {
+			while (i < n && Character.isWhitespace(text.charAt(i))) {
+				i++;
+			}
+			int start = i;
+			while (i < n && !Character.isWhitespace(text.charAt(i))) {
+				i++;
+			}
+			int len = i - start;
+			if (len == 0 || !text.regionMatches(true, start, word, 0, wl)) {
+				continue;
+			}
+			if (len == wl || (len == wl+1 && PUNCTUATION.indexOf(text.charAt(i-1)) >= 0)) {
+				before(text, last, start);
+				next.startTag(tag);
+				next.text(text.substring(start, i));
+				next.endTag(tag);
+				last = i;
+			}
+		}
+		if (last == 0) {
+			next.text(text);
+		} else {
+			before(text, last, n);
+		}
+	}
+
+	/**
+	 * Tags the word in a line of text as Tree.addTag does, splitting the line at the first
+	 * place the word appears, and then skips the rest under the same tag. A line holding the
+	 * word more than once, on which Tree.addTag throws, has every occurrence tagged.
+	 */
+	private void tagFirst(String text) throws IOException {
+		StringTokenizer st = new StringTokenizer(text);
+		int count = st.countTokens(), found = 0;
+		String x = null;
+		while (st.hasMoreTokens()) {
+			String token = st.nextToken();
+			if (matches(token)) {
+				found++;
+				if (x == null) {
+					x = token;
+				}
+			}
+		}
+		if (found == 0) {
+			next.text(text);
+		} else if (found > 1) {
+			tagWords(text);
+		} else if (count == 1) {
+			tagged(x);
+		} else {
+			int i = text.toLowerCase().indexOf(word.toLowerCase()), end = i + word.length();
+			next.text(text.substring(0, i));
+			tagged(x);
+			if (end < text.length()) {
+				next.text(text.substring(x.length() > word.length() ? end+1 : end));
+			}
+			skipDepth = depth;
+		}
+	}
+
+	/**
+	 * Passes on the added tag holding the given text.
+	 */
+	private void tagged(String text) throws IOException {
+		next.startTag(tag);
+		next.text(text);
+		next.endTag(tag);
+	}
+
+	/**
+	 * Passes on a start tag held back because it is named like the word, now that something
+	 * is known to be under it.
+	 */
+	private void flushPending() throws IOException {
+		if (pending != null) {
+			depth++;
+			next.startTag(pending);
+			pending = null;
+		}
+	}
+
+	/**
+	 * Tells whether s is the word, possibly followed by a punctuation mark, regardless of case.
+	 */
+	private boolean matches(String s) {
+		int wl = word.length();
+		return s.equalsIgnoreCase(word)
+				|| (s.length() == wl+1 && PUNCTUATION.indexOf(s.charAt(wl)) >= 0 && s.regionMatches(true, 0, word, 0, wl));
+	}
+
+	/**
+	 * Passes on the text from-to-1, unless it is blank.
+	 */
+	private void before(String text, int from, int to) throws IOException {
+		for (int i=from; i < to; i++) {
+			if (!Character.isWhitespace(text.charAt(i))) {
+				next.text(text.substring(from, to));
+				return;
+			}
+		}
+	}
+}
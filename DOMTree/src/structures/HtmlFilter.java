@@ -0,0 +1,41 @@
+package structures;
+
+import java.io.IOException;
+
+/**
+ * A link in a chain of handlers, that passes every event on to the next handler unchanged.
+ * Subclasses override the events they transform.
+ *
+ */
+public abstract class HtmlFilter implements HtmlHandler {
+
+	/**
+	 * Handler that events are passed on to
+	 */
+	protected final HtmlHandler next;
+
+	/**
+	 * Initializes this filter to pass events on to the given handler
+	 *
+	 * @param next Next handler in the chain
+	 */
+	protected HtmlFilter(HtmlHandler next) {
+		this.next = next;
+	}
+
+	public void startTag(String tag) throws IOException {
+		next.startTag(tag);
+	}
+
+	public void endTag(String tag) throws IOException {
+		next.endTag(tag);
+	}
+
+	public void text(String text) throws IOException {
+		next.text(text);
+	}
+
+	public void endDocument() throws IOException {
+		next.endDocument();
+	}
+}
@@ -0,0 +1,43 @@
+package structures;
+
+import java.io.IOException;
+
+/**
+ * Receives the tags and text of an HTML document as a stream of events, in document order,
+ * without a tree being built. Events come from HtmlTokenizer.parse, and may pass through a
+ * chain of HtmlFilters before reaching a handler that consumes them, such as an HtmlWriter.
+ *
+ */
+public interface HtmlHandler {
+
+	/**
+	 * Receives a start tag.
+	 *
+	 * @param tag Tag name
+	 * @throws IOException If the event could not be handled, for instance if output failed
+	 */
+	void startTag(String tag) throws IOException;
+
+	/**
+	 * Receives an end tag.
+	 *
+	 * @param tag Tag name
+	 * @throws IOException If the event could not be handled
+	 */
+	void endTag(String tag) throws IOException;
+
+	/**
+	 * Receives a line of text.
+	 *
+	 * @param text Text
+	 * @throws IOException If the event could not be handled
+	 */
+	void text(String text) throws IOException;
+
+	/**
+	 * Receives the end of the document, after all other events.
+	 *
+	 * @throws IOException If the event could not be handled
+	 */
+	void endDocument() throws IOException;
+}
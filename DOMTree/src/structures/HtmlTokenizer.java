@@ -0,0 +1,374 @@
+package structures;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits HTML read from a Reader into start tag, end tag and text tokens, in a single pass
+ * over the characters, with no assumptions about how the input is laid out in lines. Input is
+ * read in blocks into a reusable buffer. Tag names are interned in a table owned by the
+ * tokenizer, so a tag name String is only created the first time a tag is seen, and every
+ * occurrence of the same tag gets the same String. Attributes are skipped.
+ *
+ * Text between tags is split at line ends, and each line of text is trimmed, so that input
+ * with one tag or text line per line gives the same tokens as it always has; empty lines are
+ * dropped. Comments, doctype and processing instructions are skipped. Self-closing tags such
+ * as &lt;br/&gt;, and the HTML void elements such as &lt;br&gt; and &lt;img&gt;, give a start
+ * tag followed by an end tag. A '&lt;' that does not start a tag is taken as text.
+ *
+ */
+public class HtmlTokenizer {
+
+	/**
+	 * Token types returned by next.
+	 */
+	public static final int EOF = -1, START_TAG = 0, END_TAG = 1, TEXT = 2;
+
+	/**
+	 * Elements that never have content, and so have no end tag.
+	 */
+	private static final String[] VOID_ELEMENTS = {
+		"area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta",
+		"param", "source", "track", "wbr"
+	};
+
+	/**
+	 * Characters are read from here.
+	 */
+	private Reader in;
+
+	/**
+	 * Block of characters read from the input, valid from pos to limit-1.
+	 */
+	private char[] buf = new char[8192];
+	private int pos, limit;
+
+	/**
+	 * Characters of the text or tag name being scanned.
+	 */
+	private char[] token = new char[64];
+	private int len;
+
+	/**
+	 * Tag name or text of the last token.
+	 */
+	private String value;
+
+	/**
+	 * Name of a tag that was just opened and is to be closed by the next token, null if none.
+	 */
+	private String pendingEnd;
+
+	/**
+	 * Interned tag names, open addressed on their hash codes, and the void elements among
+	 * them.
+	 */
+	private String[] names = new String[64];
+	private boolean[] isVoid = new boolean[64];
+	private int nameCount;
+
+	/**
+	 * Initializes this tokenizer on the given input. The tokenizer does not close it.
+	 *
+	 * @param in Input
+	 */
+	public HtmlTokenizer(Reader in) {
+		this.in = in;
+		for (String name : VOID_ELEMENTS) {
+			isVoid[intern(name.toCharArray(), name.length())] = true;
+		}
+	}
+
+	/**
+	 * Scans the next token.
+	 *
+	 * @return Type of the token: START_TAG, END_TAG, TEXT, or EOF at the end of the input
+	 * @throws IOException If the input could not be read
+	 */
+	public int next()
+	throws IOException {
+		if (pendingEnd != null) {
+			value = pendingEnd;
+			pendingEnd = null;
+			return END_TAG;
+		}
+		while (true) {
+			int ch = peek();
+			if (ch == -1) {
+				return EOF;
+			}
+			if (ch == '<') {
+				int type = tag();
+				if (type != TEXT) {
+					if (type != -2) {
+						return type;
+					}
+					continue; // comment or the like
+				}
+				// a '<' that starts no tag is text, and is already in token
+			} else {
+				len = 0;
+			}
+			if (text()) {
+				return TEXT;
+			}
+		}
+	}
+
+	/**
+	 * Reads all of the input, passing each token on to a handler as an event, and then the
+	 * end of the document.
+	 *
+	 * @param handler Handler to receive the events
+	 * @throws IOException If the input could not be read, or the handler failed
+	 */
+	public void parse(HtmlHandler handler)
+	throws IOException {
+		int type;
+		while ((type = next()) != EOF) {
+			if (type == START_TAG) {
+				handler.startTag(value);
+			} else if (type == END_TAG) {
+				handler.endTag(value);
+			} else {
+				handler.text(value);
+			}
+		}
+		handler.endDocument();
+	}
+
+	/**
+	 * Returns the tag name of the last start or end tag, or the text of the last text token.
+	 *
+	 * @return Tag name or text
+	 */
+	public String value() {
+		return value;
+	}
+
+	/**
+	 * Scans text up to the next line end or '&lt;', appending to what is already in token.
+	 *
+	 * @return True if the line of text is not blank, and is in value
+	 */
+	private boolean text()
+	throws IOException {
+		int ch;
+		while ((ch = peek()) != -1 && ch != '<') {
+			pos++;
+			if (ch == '\n' || ch == '\r') {
+				break;
+			}
+			add((char)ch);
+		}
+		int from = 0, to = len;
+		while (from < to && Character.isWhitespace(token[from])) {
+			from++;
+		}
+		while (to > from && Character.isWhitespace(token[to-1])) {
+			to--;
+		}
+		len = 0;
+		if (from == to) {
+			return false;
+		}
+		value = new String(token, from, to-from);
+		return true;
+	}
+
+	/**
+	 * Scans a tag, starting at its '&lt;'.
+	 *
+	 * @return START_TAG or END_TAG, with the name in value; -2 for a comment, doctype,
+	 *         processing instruction or end tag of a void element; or TEXT if the '&lt;'
+	 *         starts no tag, with the characters read so far left in token
+	 */
+	private int tag()
+	throws IOException {
+		pos++; // '<'
+		len = 0;
+		add('<');
+		int ch = peek();
+		if (ch == '!' || ch == '?') {
+			pos++;
+			if (ch == '!' && skipPrefix("--")) {
+				skipPast("-->");
+			} else {
+				skipPast(">");
+			}
+			return -2;
+		}
+		boolean end = ch == '/';
+		if (end) {
+			pos++;
+			add('/');
+			ch = peek();
+		}
+		if (ch == -1 || !Character.isLetter(ch)) {
+			return TEXT;
+		}
+		len = 0;
+		while ((ch = peek()) != -1 && ch != '>' && ch != '/' && !Character.isWhitespace(ch)) {
+			add((char)ch);
+			pos++;
+		}
+		int name = intern(token, len);
+		len = 0;
+		// skip attributes, minding quotes, up to the closing '>'
+		boolean selfClosing = false;
+		char quote = 0;
+		while ((ch = peek()) != -1) {
+			pos++;
+			if (quote != 0) {
+				if (ch == quote) {
+					quote = 0;
+				}
+			} else if (ch == '"' || ch == '\'') {
+				quote = (char)ch;
+			} else if (ch == '>') {
+				break;
+			} else if (ch == '/') {
+				selfClosing = true;
+				continue;
+			}
+			if (!Character.isWhitespace(ch)) {
+				selfClosing = false;
+			}
+		}
+		value = names[name];
+		if (end) {
+			// void elements were closed when they were opened
+			return isVoid[name] ? -2 : END_TAG;
+		}
+		if (selfClosing || isVoid[name]) {
+			pendingEnd = value;
+		}
+		return START_TAG;
+	}
+
+	/**
+	 * Consumes the given characters if the input continues with them.
+	 *
+	 * @return True if they were there
+	 */
+	private boolean skipPrefix(String s)
+	throws IOException {
+		for (int i=0; i < s.length(); i++) {
+			if (peek() != s.charAt(i)) {
+				return false;
+			}
+			pos++;
+		}
+		return true;
+	}
+
+	/**
+	 * Consumes characters up to and including the first occurrence of the given end, or
+	 * up to the end of the input.
+	 */
+	private void skipPast(String end)
+	throws IOException {
+		int matched = 0, ch;
+		while (matched < end.length() && (ch = peek()) != -1) {
+			pos++;
+			if (ch == end.charAt(matched)) {
+				matched++;
+			} else {
+				matched = ch == end.charAt(0) ? 1 : 0;
+			}
+		}
+	}
+
+	/**
+	 * Returns the next character without consuming it, reading a block of input if needed.
+	 *
+	 * @return Next character, -1 at the end of the input
+	 */
+	private int peek()
+	throws IOException {
+		if (pos == limit) {
+			int n;
+			do {
+				n = in.read(buf, 0, buf.length);
+			} while (n == 0);
+			if (n < 0) {
+				return -1;
+			}
+			pos = 0;
+			limit = n;
+		}
+		return buf[pos];
+	}
+
+	/**
+	 * Appends a character to token.
+	 */
+	private void add(char ch) {
+		if (len == token.length) {
+			char[] t = new char[len*2];
+			System.arraycopy(token, 0, t, 0, len);
+			token = t;
+		}
+		token[len++] = ch;
+	}
+
+	/**
+	 * Returns the slot of a tag name in the intern table, adding the name if it is new.
+	 *
+	 * @param chars Characters of the name
+	 * @param n Length of the name
+	 * @return Slot of the name in names
+	 */
+	private int intern(char[] chars, int n) {
+		int h = 0;
+		for (int i=0; i < n; i++) {
+			h = 31*h + chars[i];
+		}
+		int mask = names.length-1;
+		int slot = (h ^ (h >>> 16)) & mask;
+		while (names[slot] != null) {
+			String s = names[slot];
+			if (s.length() == n && s.hashCode() == h && equals(s, chars, n)) {
+				return slot;
+			}
+			slot = (slot+1) & mask;
+		}
+		names[slot] = new String(chars, 0, n);
+		if (++nameCount*2 > names.length) {
+			grow();
+			return intern(chars, n);
+		}
+		return slot;
+	}
+
+	private static boolean equals(String s, char[] chars, int n) {
+		for (int i=0; i < n; i++) {
+			if (s.charAt(i) != chars[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Doubles the intern table.
+	 */
+	private void grow() {
+		String[] old = names;
+		boolean[] oldVoid = isVoid;
+		names = new String[old.length*2];
+		isVoid = new boolean[names.length];
+		int mask = names.length-1;
+		for (int i=0; i < old.length; i++) {
+			if (old[i] != null) {
+				int h = old[i].hashCode();
+				int slot = (h ^ (h >>> 16)) & mask;
+				while (names[slot] != null) {
+					slot = (slot+1) & mask;
+				}
+				names[slot] = old[i];
+				isVoid[slot] = oldVoid[i];
+			}
+		}
+	}
+}
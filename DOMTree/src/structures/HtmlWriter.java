@@ -0,0 +1,87 @@
+package structures;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes events out as HTML in the same layout as Tree.getHTML: one tag or line of text per
+ * line, and a tag with nothing inside it written as just its name, as a tree with that node
+ * as a leaf would print. End tags are written with the name of the tag they close, so the
+ * output is well formed even if the names in end tag events are not.
+ *
+ */
+public class HtmlWriter implements HtmlHandler {
+
+	private Writer out;
+
+	/**
+	 * Start tag that has been received but not written, until it is known whether anything
+	 * is inside it; null if none
+	 */
+	private String pending;
+
+	/**
+	 * Tags written and not yet closed
+	 */
+	private Stack<String> open = new Stack<String>();
+
+	/**
+	 * Initializes this writer. The output is flushed, but not closed, at the end of the
+	 * document.
+	 *
+	 * @param out Output
+	 */
+	public HtmlWriter(Writer out) {
+		this.out = out;
+	}
+
+	public void startTag(String tag) throws IOException {
+		flushPending();
+		pending = tag;
+	}
+
+	public void endTag(String tag) throws IOException {
+		if (pending != null) {
+			out.write(pending);
+			out.write('\n');
+			pending = null;
+		} else if (!open.isEmpty()) {
+			out.write("</");
+			out.write(open.pop());
+			out.write(">\n");
+		}
+	}
+
+	public void text(String text) throws IOException {
+		flushPending();
+		out.write(text);
+		out.write('\n');
+	}
+
+	public void endDocument() throws IOException {
+		if (pending != null) {
+			out.write(pending);
+			out.write('\n');
+			pending = null;
+		}
+		while (!open.isEmpty()) {
+			out.write("</");
+			out.write(open.pop());
+			out.write(">\n");
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes the pending start tag, now that something is inside it.
+	 */
+	private void flushPending() throws IOException {
+		if (pending != null) {
+			out.write('<');
+			out.write(pending);
+			out.write(">\n");
+			open.push(pending);
+			pending = null;
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package structures;
+
+import java.io.IOException;
+
+/**
+ * Removes all occurrences of a tag, as Tree.removeTag does on a tree: the start and end tags
+ * are dropped, and what was between them stays in their place. If the tag is ol or ul, the
+ * li tags under a removed list are also converted to p tags, down to (but not under) any list
+ * of the other kind, whose items belong to that list. Like Tree.removeTag, which does not
+ * tell tags from text, a line of text that is just li is converted to p along with them.
+ *
+ * Tree.removeTag keeps an occurrence that comes first under a removed occurrence, as in
+ * &lt;b&gt;&lt;b&gt;x&lt;/b&gt;&lt;/b&gt;, and removes one that comes first under a kept one,
+ * and it never removes the root. In strict mode the filter does the same; otherwise it
+ * removes every occurrence, as Tree.removeTag does when called again until nothing changes.
+ *
+ * Tree.removeTag throws a NullPointerException when it comes to remove an occurrence with
+ * nothing under it, or a line of text that is just the tag name. The filter drops the empty
+ * occurrence, and leaves the text alone.
+ *
+ * Memory is bounded by the depth of nesting: for each open tag, the filter remembers the name
+ * it passed on for it (null if it was removed), and whether li tags under it are converted.
+ *
+ */
+public class RemoveTagFilter extends HtmlFilter {
+
+	private final String tag;
+
+	/**
+	 * The other list tag when the tag is ol or ul, null otherwise
+	 */
+	private final String otherTag;
+
+	/**
+	 * For each open tag, the name it was passed on as, null if it was removed
+	 */
+	private Stack<String> open = new Stack<String>();
+
+	/**
+	 * For each open tag, whether its nearest enclosing list is a removed one
+	 */
+	private Stack<Boolean> converting = new Stack<Boolean>();
+
+	/**
+	 * Whether to keep the occurrences that Tree.removeTag keeps
+	 */
+	private final boolean strict;
+
+	/**
+	 * Whether the next tag or text is the first under the innermost open tag, or the first of
+	 * the document
+	 */
+	private boolean first = true;
+
+	/**
+	 * Initializes this filter to remove every occurrence of the tag
+	 *
+	 * @param tag Tag to be removed
+	 * @param next Next handler in the chain
+	 */
+	public RemoveTagFilter(String tag, HtmlHandler next) {
+		this(tag, false, next);
+	}
+
+	/**
+	 * Initializes this filter
+	 *
+	 * @param tag Tag to be removed
+	 * @param strict Whether to keep the occurrences that Tree.removeTag keeps
+	 * @param next Next handler in the chain
+	 */
+	public RemoveTagFilter(String tag, boolean strict, HtmlHandler next) {
+		super(next);
+		this.tag = tag;
+		this.strict = strict;
+		otherTag = tag.equals("ol") ? "ul" : tag.equals("ul") ? "ol" : null;
+	}
+
+	public void startTag(String name) throws IOException {
+		boolean convert = !converting.isEmpty() && converting.peek();
+		boolean firstChild = first;
+		first = true;
+		if (name.equals(tag) && (!strict || removes(firstChild))) {
+			open.push(null);
+			converting.push(otherTag != null);
+			return;
+		}
+		if (name.equals(otherTag)) {
+			convert = false;
+		} else if (convert && name.equals("li")) {
+			name = "p";
+		}
+		open.push(name);
+		converting.push(convert);
+		next.startTag(name);
+	}
+
+	public void endTag(String name) throws IOException {
+		first = false;
+		if (open.isEmpty()) {
+			next.endTag(name);
+			return;
+		}
+		converting.pop();
+		String passed = open.pop();
+		if (passed != null) {
+			next.endTag(passed);
+		}
+	}
+
+	public void text(String text) throws IOException {
+		first = false;
+		if (text.equals("li") && !converting.isEmpty() && converting.peek()) {
+			text = "p";
+		}
+		next.text(text);
+	}
+
+	/**
+	 * Tells whether Tree.removeTag removes an occurrence of the tag that starts now. Going up
+	 * a chain of occurrences each first under the one before, it removes every other one,
+	 * starting from the top of the chain unless that is the root.
+	 */
+	private boolean removes(boolean firstChild) {
+		if (open.isEmpty()) {
+			return !firstChild;
+		}
+		String parent = open.peek();
+		if (firstChild && (parent == null || parent.equals(tag))) {
+			return parent != null;
+		}
+		return true;
+	}
+}
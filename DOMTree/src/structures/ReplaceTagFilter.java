@@ -0,0 +1,39 @@
+package structures;
+
+import java.io.IOException;
+
+/**
+ * Replaces all occurrences of an old tag with a new tag, as Tree.replaceTag does on a tree.
+ * Like Tree.replaceTag, which does not tell tags from text, it also replaces a line of text
+ * that is just the old tag name.
+ *
+ */
+public class ReplaceTagFilter extends HtmlFilter {
+
+	private final String oldTag, newTag;
+
+	/**
+	 * Initializes this filter
+	 *
+	 * @param oldTag Old tag
+	 * @param newTag Replacement tag
+	 * @param next Next handler in the chain
+	 */
+	public ReplaceTagFilter(String oldTag, String newTag, HtmlHandler next) {
+		super(next);
+		this.oldTag = oldTag;
+		this.newTag = newTag;
+	}
+
+	public void startTag(String tag) throws IOException {
+		next.startTag(tag.equals(oldTag) ? newTag : tag);
+	}
+
+	public void endTag(String tag) throws IOException {
+		next.endTag(tag.equals(oldTag) ? newTag : tag);
+	}
+
+	public void text(String text) throws IOException {
+		next.text(text.equals(oldTag) ? newTag : text);
+	}
+}
@@ -1,11 +1,18 @@
 package structures;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 /**
  * This class implements an HTML DOM Tree. Each node of the tree is a TagNode, with fields for
  * tag/text, first child and sibling.
  * 
+ * All traversals of the tree keep their place on an explicit stack of nodes instead of
+ * recursing, so they work on trees of any width and depth without overflowing the call stack.
+ * They visit nodes in the same order as a recursion on sibling and then first child would.
+ * 
  */
 public class Tree {
 	
@@ -19,6 +26,23 @@ public class Tree {
 	 */
 	Scanner sc;
 	
+	/**
+	 * Reader used instead of the scanner, when the input HTML is to be tokenized character by
+	 * character
+	 */
+	Reader in;
+	
+	/**
+	 * Optional index of the nodes of the tree by tag (or text), null when the index is off
+	 */
+	HashMap<String, LinkedHashSet<TagNode>> nodesByTag;
+	
+	/**
+	 * Along with nodesByTag, the node whose first child or sibling each node is, null for
+	 * the root
+	 */
+	HashMap<TagNode, TagNode> linkedFrom;
+	
 	/**
 	 * Initializes this tree object with scanner for input HTML file
 	 * 
@@ -29,90 +53,241 @@ public class Tree {
 		root = null;
 	}
 	
+	/**
+	 * Initializes this tree object with a reader for input HTML file. The HTML need not have
+	 * one tag or text line per line; it is split into tags and text by an HtmlTokenizer.
+	 * 
+	 * @param in Reader for input HTML file
+	 */
+	public Tree(Reader in) {
+		this.in = in;
+		root = null;
+	}
+	
 	/**
 	 * Builds the DOM tree from input HTML file. The root of the 
 	 * tree is stored in the root field.
+	 * 
+	 * Along with the stack of open tags, a parallel stack holds the last child of each open
+	 * tag (null while it has none), so every new node is linked in right after its previous
+	 * sibling, without walking the sibling chain. Building thus takes time linear in the size
+	 * of the input, however many children a tag has.
+	 * 
+	 * If this tree was initialized with a reader, the input is tokenized by an HtmlTokenizer
+	 * instead of being read line by line. If the index is on, every node is indexed as it is
+	 * linked in.
+	 * 
+	 * @throws UncheckedIOException If the reader fails
 	 */
 	public void build() {
 		/** COMPLETE THIS METHOD **/
+		if (in != null) {
+			try {
+				buildTokens();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return;
+		}
 		root = new TagNode("", null, null);
-        TagNode ptr = null;
-        String remBrac; //to remove angle brackets
-        Stack<TagNode> DomStk = new Stack<TagNode>();
-
-        while (sc.hasNextLine()) {
-
-            String words = sc.nextLine();
-
-            if (words.equals("<html>")) {
-            	
-                root = new TagNode("html", null, null); 
-                DomStk.push(root);
-
-            }
-
-            else if (words.charAt(0) == '<') {
-
-                if (words.charAt(1) == '/') {
-
-                    DomStk.pop();
-
-                }
-
-                else if (DomStk.peek().firstChild == null) {
-
-                    remBrac = words.replaceAll("<", "");
-                    remBrac = remBrac.replaceAll(">", "");
-                    ptr = new TagNode(remBrac, null, null);
-                    DomStk.peek().firstChild = ptr;
-                    DomStk.push(ptr);
-
-                }
-
-                else {
-
-                    TagNode temp = DomStk.peek().firstChild;
-
-                    while (temp.sibling != null) {
-
-                        temp = temp.sibling;
-
-                    }
-
-                    remBrac = words.replaceAll("<", "");
-                    remBrac = remBrac.replaceAll(">", "");
-                    ptr = new TagNode(remBrac, null, null);
-
-                    temp.sibling = ptr;
-                    DomStk.push(ptr);
-
-                }
-
-            }
-
-            else {
-
-                if (DomStk.peek().firstChild == null) {
-
-                    DomStk.peek().firstChild = new TagNode(words, null, null);
-
-                }
-
-                else {
-
-                    TagNode temp = DomStk.peek().firstChild;
-
-                    while (temp.sibling != null) {
-
-                        temp = temp.sibling;
-
-                    }
-
-                    temp.sibling = new TagNode(words, null, null);
-
-                }
-            }       
-        }           
+		indexRoot();
+		Stack<TagNode> DomStk = new Stack<TagNode>();
+		Stack<TagNode> lastStk = new Stack<TagNode>(); //last child of each open tag, parallel to DomStk
+		
+		while (sc.hasNextLine()) {
+			String words = sc.nextLine();
+			
+			if (words.equals("<html>")) {
+				root = new TagNode("html", null, null);
+				indexRoot();
+				DomStk.push(root);
+				lastStk.push(null);
+			} else if (words.charAt(0) == '<') {
+				if (words.charAt(1) == '/') {
+					DomStk.pop();
+					lastStk.pop();
+				} else {
+					String remBrac = words.replace("<", "").replace(">", ""); //to remove angle brackets
+					TagNode ptr = new TagNode(remBrac, null, null);
+					append(DomStk, lastStk, ptr);
+					DomStk.push(ptr);
+					lastStk.push(null);
+				}
+			} else {
+				append(DomStk, lastStk, new TagNode(words, null, null));
+			}
+		}
+	}
+	
+	/**
+	 * Builds the tree from the tokens of the reader, with the same stacks as the line by line
+	 * build. Tokens outside of any open tag, and end tags with no open tag, are ignored.
+	 */
+	private void buildTokens()
+	throws IOException {
+		root = new TagNode("", null, null);
+		indexRoot();
+		Stack<TagNode> DomStk = new Stack<TagNode>();
+		Stack<TagNode> lastStk = new Stack<TagNode>(); //last child of each open tag, parallel to DomStk
+		HtmlTokenizer tokens = new HtmlTokenizer(in);
+		
+		int type;
+		while ((type = tokens.next()) != HtmlTokenizer.EOF) {
+			String value = tokens.value();
+			if (type == HtmlTokenizer.START_TAG && value.equals("html")) {
+				root = new TagNode(value, null, null);
+				indexRoot();
+				DomStk.push(root);
+				lastStk.push(null);
+			} else if (DomStk.isEmpty()) {
+				continue;
+			} else if (type == HtmlTokenizer.END_TAG) {
+				DomStk.pop();
+				lastStk.pop();
+			} else {
+				TagNode ptr = new TagNode(value, null, null);
+				append(DomStk, lastStk, ptr);
+				if (type == HtmlTokenizer.START_TAG) {
+					DomStk.push(ptr);
+					lastStk.push(null);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Links a node in as the last child of the tag on top of the stack, and records it as
+	 * that tag's last child. The node is indexed if the index is on.
+	 * 
+	 * @param DomStk Open tags
+	 * @param lastStk Last child of each open tag, null if it has none yet
+	 * @param node Node to add
+	 */
+	private void append(Stack<TagNode> DomStk, Stack<TagNode> lastStk, TagNode node) {
+		TagNode last = lastStk.pop();
+		if (last == null) {
+			DomStk.peek().firstChild = node;
+		} else {
+			last.sibling = node;
+		}
+		lastStk.push(node);
+		if (nodesByTag != null) {
+			index(node, last == null ? DomStk.peek() : last);
+		}
+	}
+	
+	/**
+	 * Turns on the index of nodes by tag, indexing the tree if it has been built. From then on,
+	 * build and every operation keep the index up to date, and replaceTag and removeTag
+	 * go straight to the nodes with the tag instead of scanning the whole tree, so they take
+	 * time in proportion to the number of matches (for ol and ul, plus the size of the
+	 * removed lists, whose items are converted). The index costs two hash table entries per
+	 * node.
+	 */
+	public void enableIndex() {
+		if (nodesByTag != null) {
+			return;
+		}
+		nodesByTag = new HashMap<String, LinkedHashSet<TagNode>>();
+		linkedFrom = new HashMap<TagNode, TagNode>();
+		if (root != null) {
+			indexRoot();
+			indexBelow(root);
+		}
+	}
+	
+	/**
+	 * Turns off the index of nodes by tag, and frees it.
+	 */
+	public void disableIndex() {
+		nodesByTag = null;
+		linkedFrom = null;
+	}
+	
+	/**
+	 * Starts the index afresh with just the root, if the index is on.
+	 */
+	private void indexRoot() {
+		if (nodesByTag != null) {
+			nodesByTag.clear();
+			linkedFrom.clear();
+			index(root, null);
+		}
+	}
+	
+	/**
+	 * Adds a node to the index.
+	 * 
+	 * @param t Node
+	 * @param from Node whose first child or sibling t is, null for the root
+	 */
+	private void index(TagNode t, TagNode from) {
+		LinkedHashSet<TagNode> nodes = nodesByTag.get(t.tag);
+		if (nodes == null) {
+			nodes = new LinkedHashSet<TagNode>();
+			nodesByTag.put(t.tag, nodes);
+		}
+		nodes.add(t);
+		linkedFrom.put(t, from);
+	}
+	
+	/**
+	 * Drops a node from the index.
+	 */
+	private void unindex(TagNode t) {
+		LinkedHashSet<TagNode> nodes = nodesByTag.get(t.tag);
+		nodes.remove(t);
+		if (nodes.isEmpty()) {
+			nodesByTag.remove(t.tag);
+		}
+		linkedFrom.remove(t);
+	}
+	
+	/**
+	 * Changes the tag of a node, moving it in the index if the index is on.
+	 */
+	private void retag(TagNode t, String tag) {
+		if (nodesByTag != null) {
+			TagNode from = linkedFrom.get(t);
+			unindex(t);
+			t.tag = tag;
+			index(t, from);
+		} else {
+			t.tag = tag;
+		}
+	}
+	
+	/**
+	 * Adds all nodes under a node to the index.
+	 */
+	private void indexBelow(TagNode t) {
+		indexChain(t.firstChild, t, true);
+	}
+	
+	/**
+	 * Adds to the index, or drops from it, a chain of siblings and all nodes under them.
+	 * 
+	 * @param t First node of the chain, may be null
+	 * @param from Node whose first child or sibling t is
+	 * @param add True to add the nodes, false to drop them
+	 */
+	private void indexChain(TagNode t, TagNode from, boolean add) {
+		Stack<TagNode> stk = new Stack<TagNode>(); //nodes whose children are still to be visited
+		while(true)
+		{
+			for(; t != null; from = t, t = t.sibling)
+			{
+				if(add)
+					index(t, from);
+				else
+					unindex(t);
+				stk.push(t);
+			}
+			if(stk.isEmpty())
+				break;
+			from = stk.pop();
+			t = from.firstChild;
+		}
 	}
 	
 	
@@ -124,18 +299,35 @@ public class Tree {
 	 */
 	public void replaceTag(String oldTag, String newTag) {
 		/** COMPLETE THIS METHOD **/
-		recRepTag(root, oldTag, newTag);
-	}
-	private void recRepTag(TagNode t, String oldTag, String newTag)
-	{
-		if(t == null)
+		if(nodesByTag != null) //only the nodes with the old tag need be looked at
+		{
+			LinkedHashSet<TagNode> nodes = nodesByTag.get(oldTag);
+			if(nodes == null || oldTag.equals(newTag))
+				return;
+			nodesByTag.remove(oldTag);
+			for(TagNode t : nodes)
+				t.tag = newTag;
+			LinkedHashSet<TagNode> others = nodesByTag.get(newTag);
+			if(others == null)
+				nodesByTag.put(newTag, nodes);
+			else
+				others.addAll(nodes);
 			return;
-		
-		if(t.tag.equals(oldTag))
-			t.tag = newTag;
-		
-		recRepTag(t.sibling, oldTag, newTag);
-		recRepTag(t.firstChild, oldTag, newTag);
+		}
+		Stack<TagNode> stk = new Stack<TagNode>(); //nodes whose children are still to be visited
+		TagNode t = root;
+		while(true)
+		{
+			for(; t != null; t = t.sibling)
+			{
+				if(t.tag.equals(oldTag))
+					t.tag = newTag;
+				stk.push(t);
+			}
+			if(stk.isEmpty())
+				break;
+			t = stk.pop().firstChild;
+		}
 	}
 	/**
 	 * Boldfaces every column of the given row of the table in the DOM tree. The boldface (b)
@@ -145,7 +337,7 @@ public class Tree {
 	 */
 	public void boldRow(int row) {
 		/** COMPLETE THIS METHOD **/
-		TagNode t = recFindTable(root, row);
+		TagNode t = findTable(root);
 		
 		while(!t.tag.equals("tr"))//loop to get the first row in the table 
 		{
@@ -164,23 +356,22 @@ public class Tree {
 			TagNode bold = new TagNode("b", null, null);
 			bold.firstChild = t.firstChild;
 			t.firstChild = bold;
+			if(nodesByTag != null)
+			{
+				index(bold, t);
+				if(bold.firstChild != null)
+					linkedFrom.put(bold.firstChild, bold);
+			}
 			t = t.sibling;
 		}
 	}
-	private TagNode recFindTable(TagNode t, int row)
+	private TagNode findTable(TagNode t)
 	{
-		if(t == null)
-			return null;
-		
-		if(t.tag.equals("table"))
+		while(t != null && !t.tag.equals("table"))
 		{
-			return t;
+			t = t.sibling != null ? t.sibling : t.firstChild;
 		}
-		
-		if(t.sibling != null)
-			return recFindTable(t.sibling, row);
-		
-		return recFindTable(t.firstChild, row);
+		return t;
 	}
 	/**
 	 * Remove all occurrences of a tag from the DOM tree. If the tag is p, em, or b, all occurrences of the tag
@@ -191,23 +382,37 @@ public class Tree {
 	 */
 	public void removeTag(String tag) {
 		/** COMPLETE THIS METHOD **/
-		recFindTag(root, tag);
+		if(nodesByTag != null)
+		{
+			removeIndexed(tag);
+			return;
+		}
+		Stack<TagNode> stk = new Stack<TagNode>(); //nodes whose children are still to be visited
+		TagNode t = root;
+		while(true)
+		{
+			for(; t != null; t = t.sibling)
+			{
+				findTag(t, tag);
+				stk.push(t);
+			}
+			if(stk.isEmpty())
+				break;
+			t = stk.pop().firstChild;
+		}
 	}
-	private void recFindTag(TagNode t, String tag)
+	private void findTag(TagNode t, String tag)
 	{
-		if(t == null)
-			return;
-		
 		if(t.sibling!=null && t.sibling.tag.equals(tag))
 		{
 			TagNode temp = t.sibling.sibling;
 			t.sibling = t.sibling.firstChild;
 			
 			if(tag.equals("ol"))
-				recSwitchlipTags(t.sibling, "ul");
+				switchlipTags(t.sibling, "ul");
 			
 			else if(tag.equals("ul"))
-				recSwitchlipTags(t.sibling, "ol");
+				switchlipTags(t.sibling, "ol");
 			
 			TagNode k = t.sibling;
 			while(k.sibling!=null)
@@ -223,10 +428,10 @@ public class Tree {
 			t.firstChild = t.firstChild.firstChild;
 			
 			if(tag.equals("ol"))
-				recSwitchlipTags(t.firstChild, "ul");
+				switchlipTags(t.firstChild, "ul");
 				
 			else if(tag.equals("ul"))
-				recSwitchlipTags(t.firstChild, "ol");
+				switchlipTags(t.firstChild, "ol");
 			
 			TagNode k = t.firstChild;
 			while(k.sibling!=null)
@@ -236,25 +441,87 @@ public class Tree {
 			k.sibling = temp;
 				
 		}
-		
-		recFindTag(t.sibling, tag);
-		
-		recFindTag(t.firstChild, tag);
 	}
-	private void recSwitchlipTags(TagNode t,String otherTag)
+	/**
+	 * Removes a tag with the index, with the same result as the traversal of removeTag. The
+	 * traversal removes an occurrence when it comes to the node linking to it, and the first
+	 * child of a removed occurrence takes its place after that node has been looked at, so an
+	 * occurrence that is the first child of a removed one stays, and one that is the first
+	 * child of one that stays is removed. Which ones are removed is thus worked out up front,
+	 * up the chain of first children with the tag; then they are removed in any order, the
+	 * index giving the node linking to each.
+	 * 
+	 * @throws NullPointerException If an occurrence to be removed has nothing under it, as the
+	 *         traversal does, but before anything is changed
+	 */
+	private void removeIndexed(String tag)
 	{
-		if(t == null)
+		LinkedHashSet<TagNode> nodes = nodesByTag.get(tag);
+		if(nodes == null)
 			return;
-		
-		if(t.tag.equals("li"))
-			t.tag = "p";
-		
-		recSwitchlipTags(t.sibling, otherTag);
-		if(!t.tag.equals(otherTag)) //bypass everything under the other tag
+		ArrayList<TagNode> removed = new ArrayList<TagNode>();
+		for(TagNode t : nodes)
 		{
-			recSwitchlipTags(t.firstChild, otherTag);
+			int chain = 0; //number of first children with the tag from t up
+			TagNode top = t, from = linkedFrom.get(t);
+			while(from != null && from.firstChild == top && from.tag.equals(tag))
+			{
+				chain++;
+				top = from;
+				from = linkedFrom.get(top);
+			}
+			boolean topRemoved = from != null;
+			if(topRemoved == (chain % 2 == 0))
+			{
+				if(t.firstChild == null)
+					throw new NullPointerException("Cannot remove " + tag + " with nothing under it");
+				removed.add(t);
+			}
 		}
 		
+		String otherTag = tag.equals("ol") ? "ul" : tag.equals("ul") ? "ol" : null;
+		for(TagNode t : removed)
+		{
+			if(otherTag != null)
+				switchlipTags(t.firstChild, otherTag);
+			
+			TagNode from = linkedFrom.get(t);
+			if(from.sibling == t)
+				from.sibling = t.firstChild;
+			else
+				from.firstChild = t.firstChild;
+			linkedFrom.put(t.firstChild, from);
+			
+			TagNode k = t.firstChild;
+			while(k.sibling!=null)
+			{
+				k = k.sibling;
+			}
+			k.sibling = t.sibling;
+			if(t.sibling != null)
+				linkedFrom.put(t.sibling, k);
+			unindex(t);
+		}
+	}
+	private void switchlipTags(TagNode t,String otherTag)
+	{
+		Stack<TagNode> stk = new Stack<TagNode>(); //nodes whose children are still to be visited
+		while(true)
+		{
+			for(; t != null; t = t.sibling)
+			{
+				if(t.tag.equals("li"))
+					retag(t, "p");
+				stk.push(t);
+			}
+			if(stk.isEmpty())
+				break;
+			t = stk.pop();
+			if(t.tag.equals(otherTag)) //bypass everything under the other tag
+				t = null;
+			else
+				t = t.firstChild;
+		}
 	}
 	/**
 	 * Adds a tag around all occurrences of a word in the DOM tree.
@@ -264,12 +531,86 @@ public class Tree {
 	 */
 	public void addTag(String word, String tag) {
 		/** COMPLETE THIS METHOD **/
-		recFindTag(root, word, tag);
+		Stack<TagNode> stk = new Stack<TagNode>(); //nodes whose children are still to be visited
+		TagNode t = root;
+		while(true)
+		{
+			while(t != null)
+			{
+				String oldTag = t.tag;
+				TagNode oldChild = t.firstChild, oldSibling = t.sibling;
+				int done;
+				try
+				{
+					done = findTag(t, word, tag);
+				}
+				catch(RuntimeException e)
+				{
+					if(nodesByTag != null) //t may have been changed part way, so index afresh
+					{
+						indexRoot();
+						indexBelow(root);
+					}
+					throw e;
+				}
+				if(nodesByTag != null && done != 0)
+					reindex(t, oldTag, oldChild, oldSibling);
+				if((done & TAGGED_CHILD) == 0)//you just changed t's first child so don't go there
+					stk.push(t);
+				if((done & TAGGED_SIBLING) == 0)//you just changed t's sibling so don't go there
+					t = t.sibling;
+				else
+					t = null;
+			}
+			if(stk.isEmpty())
+				break;
+			t = stk.pop().firstChild;
+		}
 	}
-	private void recFindTag(TagNode t, String word, String tag) // deal with double words!!
+	/**
+	 * Updates the index for a node that addTag has changed: its tag may have changed, and
+	 * new nodes may have been linked in as its first child or after it, in place of nodes
+	 * that are then no longer in the tree.
+	 * 
+	 * @param t Node
+	 * @param oldTag Tag of the node before
+	 * @param oldChild First child of the node before
+	 * @param oldSibling Sibling of the node before
+	 */
+	private void reindex(TagNode t, String oldTag, TagNode oldChild, TagNode oldSibling)
+	{
+		if(!t.tag.equals(oldTag))
+		{
+			String tag = t.tag;
+			t.tag = oldTag;
+			retag(t, tag);
+		}
+		if(t.firstChild != oldChild)
+		{
+			indexChain(oldChild, null, false);
+			indexChain(t.firstChild, t, true);
+		}
+		if(t.sibling != oldSibling)
+		{
+			TagNode from = t, k = t.sibling;
+			for(; k != null && k != oldSibling; from = k, k = k.sibling)
+			{
+				index(k, from);
+				indexBelow(k);
+			}
+			if(k == null)
+				indexChain(oldSibling, null, false);
+			else
+				linkedFrom.put(k, from);
+		}
+	}
+	/**
+	 * Flags returned by findTag(TagNode, String, String), for a node whose first child or
+	 * sibling was changed to the added tag
+	 */
+	private static final int TAGGED_CHILD = 1, TAGGED_SIBLING = 2;
+	private int findTag(TagNode t, String word, String tag) // deal with double words!!
 	{
-		if(t == null)
-			return;
 		String temp = t.tag;
 		StringTokenizer st = new StringTokenizer(temp);
 		int c = st.countTokens();
@@ -461,12 +802,7 @@ public class Tree {
 			}
 		}
 		*/
-		if(!t2)//you just changed t's sibling so don't go there
-			recFindTag(t.sibling, word, tag);
-		
-		if(!t1)//you just changed t's first child so don't go there
-			recFindTag(t.firstChild, word, tag);
-		
+		return (t1 ? TAGGED_CHILD : 0) | (t2 ? TAGGED_SIBLING : 0);
 	}
 	/**
 	 * Gets the HTML represented by this DOM tree. The returned string includes
@@ -482,19 +818,30 @@ public class Tree {
 	}
 	
 	private void getHTML(TagNode root, StringBuilder sb) {
-		for (TagNode ptr=root; ptr != null;ptr=ptr.sibling) {
-			if (ptr.firstChild == null) {
-				sb.append(ptr.tag);
-				sb.append("\n");
-			} else {
-				sb.append("<");
-				sb.append(ptr.tag);
-				sb.append(">\n");
-				getHTML(ptr.firstChild, sb);
-				sb.append("</");
-				sb.append(ptr.tag);
-				sb.append(">\n");	
+		Stack<TagNode> open = new Stack<TagNode>(); //tags whose end tag is still to be written
+		TagNode ptr = root;
+		while (true) {
+			while (ptr != null) {
+				if (ptr.firstChild == null) {
+					sb.append(ptr.tag);
+					sb.append("\n");
+					ptr = ptr.sibling;
+				} else {
+					sb.append("<");
+					sb.append(ptr.tag);
+					sb.append(">\n");
+					open.push(ptr);
+					ptr = ptr.firstChild;
+				}
+			}
+			if (open.isEmpty()) {
+				break;
 			}
+			ptr = open.pop();
+			sb.append("</");
+			sb.append(ptr.tag);
+			sb.append(">\n");
+			ptr = ptr.sibling;
 		}
 	}
 	
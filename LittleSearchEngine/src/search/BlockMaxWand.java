@@ -0,0 +1,236 @@
+package search;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Top k evaluation of a ranked query with Block-Max WAND. The query's posting lists are walked
+ * together in document order. A document is only scored if the score bounds of the lists that
+ * can have it add up to more than the k-th best score found so far, first the bounds of whole
+ * lists, then the bounds of the blocks the document falls in; when the block bounds are too
+ * low, all lists jump past those blocks at once. Common keywords thus only have the blocks
+ * near documents of rare keywords looked at, once the results fill up with good documents.
+ *
+ * Scores are added up in the order of the query's keywords, so each document gets exactly the
+ * score it would get if all postings were scored.
+ *
+ */
+class BlockMaxWand {
+
+	/**
+	 * Bounds are inflated by this fraction before they are compared with scores, so that
+	 * rounding in the bound computation never skips a document that ties.
+	 */
+	private static final double SLACK = 1e-9;
+
+	/**
+	 * Position in the blocks of one of the query's keywords.
+	 */
+	private static class Cursor {
+		DocBlocks list;
+		double idf;
+
+		/**
+		 * Score bound of each block, and of the whole list.
+		 */
+		double[] blockBounds;
+		double bound;
+
+		int pos, block;
+
+		/**
+		 * Document id at pos, Integer.MAX_VALUE past the end.
+		 */
+		int doc;
+
+		Cursor(DocBlocks list, double idf, Ranker r, Scoring s) {
+			this.list = list;
+			this.idf = idf;
+			blockBounds = new double[list.blocks()];
+			for (int b=0; b < blockBounds.length; b++) {
+				blockBounds[b] = r.bound(s, idf, list.minLengths[b], list.maxFreqs[b]) * (1+SLACK);
+				bound = Math.max(bound, blockBounds[b]);
+			}
+			doc = list.size() > 0 ? list.docs[0] : Integer.MAX_VALUE;
+		}
+
+		/**
+		 * Moves to the first posting with a document id of at least target, skipping whole
+		 * blocks on their last document ids.
+		 */
+		void advance(int target) {
+			if (doc >= target) {
+				return;
+			}
+			while (block < list.blocks() && list.lastDocs[block] < target) {
+				block++;
+			}
+			if (block == list.blocks()) {
+				pos = list.size();
+				doc = Integer.MAX_VALUE;
+				return;
+			}
+			int lo = Math.max(pos, block*DocBlocks.BLOCK), hi = Math.min((block+1)*DocBlocks.BLOCK, list.size()) - 1;
+			while (lo < hi) {
+				int mid = (lo+hi) >>> 1;
+				if (list.docs[mid] < target) {
+					lo = mid+1;
+				} else {
+					hi = mid;
+				}
+			}
+			pos = lo;
+			doc = list.docs[pos];
+		}
+
+		/**
+		 * Returns the index of the block that target would be in, without moving.
+		 */
+		int blockOf(int target) {
+			int b = block;
+			while (b < list.blocks() && list.lastDocs[b] < target) {
+				b++;
+			}
+			return b;
+		}
+	}
+
+	/**
+	 * A scored document in the results heap.
+	 */
+	private static class Hit {
+		int doc;
+		double score;
+
+		Hit(int doc, double score) {
+			this.doc = doc;
+			this.score = score;
+		}
+
+		/**
+		 * Tells whether this hit ranks below another: lower score, or same score and
+		 * indexed later.
+		 */
+		boolean worseThan(Hit o) {
+			return score < o.score || (score == o.score && doc > o.doc);
+		}
+	}
+
+	/**
+	 * Finds the k best documents for a ranked query.
+	 *
+	 * @param lists Blocks of the query's keywords, in query order, null for keywords that are
+	 *        not indexed
+	 * @param dfs Number of postings of each keyword
+	 * @param r Ranker
+	 * @param s Scoring function
+	 * @param k Number of documents to find, at least 1
+	 * @param accept Tells whether a document may be in the results
+	 * @param scores Filled with the scores of the best documents
+	 * @return Ids of the best documents, highest score first, ties to the lower id
+	 */
+	static int[] topK(DocBlocks[] lists, int[] dfs, Ranker r, Scoring s, int k, IntPredicate accept,
+			double[] scores) {
+		ArrayList<Cursor> live = new ArrayList<Cursor>(lists.length);
+		for (int t=0; t < lists.length; t++) {
+			if (lists[t] != null && lists[t].size() > 0) {
+				live.add(new Cursor(lists[t], r.idf(s, dfs[t]), r, s));
+			}
+		}
+		Cursor[] cursors = live.toArray(new Cursor[0]);
+		Cursor[] byTerm = cursors.clone(); // query order, for adding up scores
+		PriorityQueue<Hit> heap = new PriorityQueue<Hit>(k+1, (a, b) -> a.worseThan(b) ? -1 : b.worseThan(a) ? 1 : 0);
+
+		while (true) {
+			sortByDoc(cursors);
+			double threshold = heap.size() < k ? Double.NEGATIVE_INFINITY : heap.peek().score;
+
+			// pivot: first cursor at which the list bounds add up to the threshold
+			double sum = 0;
+			int p = -1;
+			for (int i=0; i < cursors.length && cursors[i].doc != Integer.MAX_VALUE; i++) {
+				sum += cursors[i].bound;
+				if (sum >= threshold) {
+					p = i;
+					break;
+				}
+			}
+			if (p == -1) {
+				break;
+			}
+			int pivot = cursors[p].doc;
+			while (p+1 < cursors.length && cursors[p+1].doc == pivot) {
+				p++;
+			}
+
+			// block bounds of the lists up to the pivot
+			double blockSum = 0;
+			int next = p+1 < cursors.length ? cursors[p+1].doc : Integer.MAX_VALUE;
+			for (int i=0; i <= p; i++) {
+				Cursor c = cursors[i];
+				int b = c.blockOf(pivot);
+				if (b == c.list.blocks()) {
+					continue; // nothing left from the pivot on
+				}
+				blockSum += c.blockBounds[b];
+				next = Math.min(next, c.list.lastDocs[b]+1);
+			}
+			if (blockSum < threshold) {
+				// no document up to next can beat the threshold
+				for (int i=0; i <= p; i++) {
+					cursors[i].advance(next);
+				}
+				continue;
+			}
+
+			if (cursors[0].doc == pivot) {
+				double score = 0;
+				for (Cursor c : byTerm) {
+					if (c.doc == pivot) {
+						score += r.score(s, c.idf, pivot, c.list.freqs[c.pos]);
+					}
+				}
+				if (accept.test(pivot)) {
+					Hit h = new Hit(pivot, score);
+					if (heap.size() < k) {
+						heap.add(h);
+					} else if (heap.peek().worseThan(h)) {
+						heap.poll();
+						heap.add(h);
+					}
+				}
+				for (int i=0; i <= p; i++) {
+					cursors[i].advance(pivot+1);
+				}
+			} else {
+				for (int i=0; i < p && cursors[i].doc < pivot; i++) {
+					cursors[i].advance(pivot);
+				}
+			}
+		}
+
+		int[] top = new int[heap.size()];
+		for (int i=top.length-1; i >= 0; i--) {
+			Hit h = heap.poll();
+			top[i] = h.doc;
+			scores[i] = h.score;
+		}
+		return top;
+	}
+
+	/**
+	 * Insertion sort of the cursors on their current document, since queries have few
+	 * keywords and the cursors are mostly in order already.
+	 */
+	private static void sortByDoc(Cursor[] cursors) {
+		for (int i=1; i < cursors.length; i++) {
+			Cursor c = cursors[i];
+			int j = i-1;
+			while (j >= 0 && cursors[j].doc > c.doc) {
+				cursors[j+1] = cursors[j];
+				j--;
+			}
+			cursors[j+1] = c;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package search;
+
+import java.util.*;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The postings of a keyword in ascending order of document ids, cut into blocks of BLOCK
+ * postings, with the largest frequency and the shortest document length in each block. From
+ * these, the score of every posting in a block can be bounded without looking at the postings,
+ * which lets ranked search skip blocks that can not make it into the results. Built once per
+ * posting list, and kept with the list until the list changes.
+ *
+ */
+class DocBlocks {
+
+	/**
+	 * Number of postings in a block.
+	 */
+	static final int BLOCK = 128;
+
+	/**
+	 * Document ids in ascending order, and their frequencies.
+	 */
+	final int[] docs, freqs;
+
+	/**
+	 * Per block: the last document id, the largest frequency, and the shortest document length.
+	 */
+	final int[] lastDocs, maxFreqs, minLengths;
+
+	/**
+	 * Builds the blocks of a posting list.
+	 *
+	 * @param occs Posting list
+	 * @param lengths Document lengths, by id
+	 */
+	DocBlocks(PostingList occs, IntUnaryOperator lengths) {
+		int n = occs.size();
+		long[] packed = new long[n];
+		int[] d = new int[PackedPostings.BLOCK], f = new int[PackedPostings.BLOCK];
+		for (int b=0; b < occs.blockCount(); b++) {
+			int len = occs.decodeBlock(b, d, f), from = b*PackedPostings.BLOCK;
+			for (int i=0; i < len; i++) {
+				packed[from+i] = ((long)d[i] << 32) | f[i];
+			}
+		}
+		Arrays.sort(packed);
+		docs = new int[n];
+		freqs = new int[n];
+		for (int i=0; i < n; i++) {
+			docs[i] = (int)(packed[i] >>> 32);
+			freqs[i] = (int)packed[i];
+		}
+
+		int blocks = (n + BLOCK-1) / BLOCK;
+		lastDocs = new int[blocks];
+		maxFreqs = new int[blocks];
+		minLengths = new int[blocks];
+		for (int b=0; b < blocks; b++) {
+			int from = b*BLOCK, to = Math.min(from+BLOCK, n);
+			int maxFreq = 0, minLength = Integer.MAX_VALUE;
+			for (int i=from; i < to; i++) {
+				maxFreq = Math.max(maxFreq, freqs[i]);
+				minLength = Math.min(minLength, lengths.applyAsInt(docs[i]));
+			}
+			lastDocs[b] = docs[to-1];
+			maxFreqs[b] = maxFreq;
+			minLengths[b] = minLength;
+		}
+	}
+
+	/**
+	 * Returns the number of postings.
+	 *
+	 * @return Number of postings
+	 */
+	int size() {
+		return docs.length;
+	}
+
+	/**
+	 * Returns the number of blocks.
+	 *
+	 * @return Number of blocks
+	 */
+	int blocks() {
+		return lastDocs.length;
+	}
+}
@@ -0,0 +1,191 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Interns document names to dense integer ids, 0 for the first document added, 1 for the
+ * next, and so on, so that postings can refer to documents by id. The table also keeps the
+ * length of each document, in keywords, and its TF-IDF norm, for ranking, updating the norm
+ * whenever the length is set. Ids are handed out under the table's
+ * lock, but names and lengths can be looked up by id without locking, from any thread that
+ * got hold of the id after it was handed out.
+ *
+ */
+class DocTable {
+
+	/**
+	 * Document names, indexed by id. The array is only ever replaced by a larger copy.
+	 */
+	private volatile String[] names;
+
+	/**
+	 * Document lengths, parallel to names.
+	 */
+	private volatile int[] lengths;
+
+	/**
+	 * TF-IDF norms of documents, as given by Ranker.tfidfNorm, parallel to names.
+	 */
+	private volatile float[] norms;
+
+	/**
+	 * Number of documents in this table.
+	 */
+	private volatile int size;
+
+	/**
+	 * Number of documents that have not been removed, and the sum of their lengths.
+	 */
+	private volatile int liveCount;
+	private volatile long totalLength;
+
+	/**
+	 * Incremented on every change to the table.
+	 */
+	private volatile long version;
+
+	/**
+	 * Ids of documents, keyed by name.
+	 */
+	private HashMap<String,Integer> ids;
+
+	/**
+	 * Initializes an empty table.
+	 */
+	DocTable() {
+		names = new String[16];
+		lengths = new int[16];
+		norms = new float[16];
+		ids = new HashMap<String,Integer>();
+	}
+
+	/**
+	 * Returns the id of a document, giving it the next free id if it has none.
+	 *
+	 * @param name Document name
+	 * @return Document id
+	 */
+	synchronized int id(String name) {
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = size;
+			if (id == names.length) {
+				lengths = Arrays.copyOf(lengths, id*2);
+				norms = Arrays.copyOf(norms, id*2);
+				names = Arrays.copyOf(names, id*2);
+			}
+			norms[id] = Ranker.tfidfNorm(lengths[id]);
+			names[id] = name;
+			ids.put(name, id);
+			size = id+1;
+			liveCount++;
+			version++;
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of a document.
+	 *
+	 * @param name Document name
+	 * @return Document id, -1 if the document has none
+	 */
+	synchronized int find(String name) {
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Takes away the id of a document, so that the next call to id gives it a new one. The
+	 * name and length can still be looked up by the old id.
+	 *
+	 * @param name Document name
+	 */
+	synchronized void remove(String name) {
+		Integer id = ids.remove(name);
+		if (id != null) {
+			liveCount--;
+			totalLength -= lengths[id];
+			version++;
+		}
+	}
+
+	/**
+	 * Sets the length of a document that has not been removed.
+	 *
+	 * @param id Document id
+	 * @param length Number of keywords in the document
+	 */
+	synchronized void setLength(int id, int length) {
+		totalLength += length - lengths[id];
+		lengths[id] = length;
+		norms[id] = Ranker.tfidfNorm(length);
+		version++;
+	}
+
+	/**
+	 * Returns the name of a document.
+	 *
+	 * @param id Document id
+	 * @return Document name
+	 */
+	String name(int id) {
+		return names[id];
+	}
+
+	/**
+	 * Returns the length of a document.
+	 *
+	 * @param id Document id
+	 * @return Number of keywords in the document
+	 */
+	int length(int id) {
+		return lengths[id];
+	}
+
+	/**
+	 * Returns the TF-IDF norm of a document.
+	 *
+	 * @param id Document id
+	 * @return Norm, as given by Ranker.tfidfNorm for the length of the document
+	 */
+	float norm(int id) {
+		return norms[id];
+	}
+
+	/**
+	 * Returns the number of ids handed out by this table, including those of removed documents.
+	 *
+	 * @return Number of documents
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of documents that have not been removed.
+	 *
+	 * @return Number of live documents
+	 */
+	int liveCount() {
+		return liveCount;
+	}
+
+	/**
+	 * Returns the sum of the lengths of the documents that have not been removed.
+	 *
+	 * @return Total length of live documents
+	 */
+	long totalLength() {
+		return totalLength;
+	}
+
+	/**
+	 * Returns a number that changes whenever ids or lengths change.
+	 *
+	 * @return Version of this table
+	 */
+	long version() {
+		return version;
+	}
+}
@@ -0,0 +1,524 @@
+package search;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A keywords index stored in a compact binary file, which is searched in place through a
+ * memory mapping of the file. The file is laid out as follows (all ints are 4 byte big endian,
+ * all vints are 7 bits per byte variable length integers, low order group first):
+ *
+ * <pre>
+ *   header:        int magic, int version, int docCount, int termCount,
+ *                  int docTablePos, int termTablePos, int liveCount, long totalLength
+ *   documents:     per document: vint length, UTF-8 bytes of the name, vint document length
+ *   terms:         per term: vint length, UTF-8 bytes of the term, vint postingCount,
+ *                  then per posting: vint docId, vint frequency delta
+ *   doc table:     docCount ints, file position of each document, by docId
+ *   term table:    termCount ints, file position of each term, in UTF-8 byte order of terms
+ * </pre>
+ *
+ * Postings of a term are kept in descending order of frequencies, so each frequency is stored
+ * as the (non-negative) difference from the frequency before it, the first one as is. Terms are
+ * found by binary search over the term table. Document lengths, and the number and total length
+ * of documents that were not removed, are kept for ranked search.
+ *
+ */
+class IndexFile {
+
+	/**
+	 * Marks a file as an index file.
+	 */
+	static final int MAGIC = 0x4c534549;
+
+	/**
+	 * Version of the file layout.
+	 */
+	static final int VERSION = 2;
+
+	/**
+	 * Size of the header, in bytes.
+	 */
+	static final int HEADER_SIZE = 36;
+
+	/**
+	 * Mapped contents of the file.
+	 */
+	private ByteBuffer buf;
+
+	private int docCount, termCount, docTablePos, termTablePos, liveCount;
+	
+	private long totalLength;
+
+	/**
+	 * Names of documents, decoded from the file when first needed.
+	 */
+	private String[] docNames;
+
+	/**
+	 * Initializes this index file on the given mapped contents.
+	 *
+	 * @param buf Contents of the file
+	 * @throws IOException If the contents are not an index file
+	 */
+	private IndexFile(ByteBuffer buf)
+	throws IOException {
+		this.buf = buf;
+		if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+			throw new IOException("not an index file");
+		}
+		if (buf.getInt(4) != VERSION) {
+			throw new IOException("unsupported index file version " + buf.getInt(4));
+		}
+		docCount = buf.getInt(8);
+		termCount = buf.getInt(12);
+		docTablePos = buf.getInt(16);
+		termTablePos = buf.getInt(20);
+		liveCount = buf.getInt(24);
+		totalLength = buf.getLong(28);
+		docNames = new String[docCount];
+	}
+
+	/**
+	 * Maps an index file into memory. The file is closed once mapped; the mapping stays valid
+	 * until this object is garbage collected.
+	 *
+	 * @param file Name of the index file
+	 * @return Index file
+	 * @throws IOException If the file can not be read, or is not an index file
+	 */
+	static IndexFile open(String file)
+	throws IOException {
+		try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+			if (ch.size() > Integer.MAX_VALUE) {
+				throw new IOException("index file is larger than 2GB: " + file);
+			}
+			return new IndexFile(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+		}
+	}
+
+	/**
+	 * Writes a keywords index to a file.
+	 *
+	 * @param index Keywords index, each list in descending order of frequencies
+	 * @param docs Documents table that the postings refer to
+	 * @param file Name of the index file
+	 * @throws IOException If the file can not be written, or would be larger than 2GB
+	 */
+	static void write(Map<String,PostingList> index, DocTable docs, String file)
+	throws IOException {
+		// terms in UTF-8 byte order
+		byte[][] terms = new byte[index.size()][];
+		int t = 0;
+		for (String term : index.keySet()) {
+			terms[t++] = term.getBytes(StandardCharsets.UTF_8);
+		}
+		Arrays.sort(terms, Arrays::compareUnsigned);
+
+		try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			Output out = new Output(ch);
+			out.pos = HEADER_SIZE;
+			ch.position(HEADER_SIZE);
+
+			int[] docPos = new int[docs.size()];
+			for (int d=0; d < docPos.length; d++) {
+				docPos[d] = out.at();
+				byte[] name = docs.name(d).getBytes(StandardCharsets.UTF_8);
+				out.vint(name.length);
+				out.bytes(name);
+				out.vint(docs.length(d));
+			}
+
+			int[] termPos = new int[terms.length];
+			for (t=0; t < terms.length; t++) {
+				termPos[t] = out.at();
+				out.vint(terms[t].length);
+				out.bytes(terms[t]);
+				PostingList occs = index.get(new String(terms[t], StandardCharsets.UTF_8));
+				out.vint(occs.size());
+				for (int i=0; i < occs.size(); i++) {
+					out.vint(occs.doc(i));
+					out.vint(i == 0 ? occs.freq(i) : occs.freq(i-1) - occs.freq(i));
+				}
+			}
+
+			int docTablePos = out.at();
+			for (int p : docPos) {
+				out.int4(p);
+			}
+			int termTablePos = out.at();
+			for (int p : termPos) {
+				out.int4(p);
+			}
+			out.at();
+			out.flush();
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(docPos.length).putInt(terms.length)
+				.putInt(docTablePos).putInt(termTablePos).putInt(docs.liveCount())
+				.putLong(docs.totalLength()).flip();
+			ch.write(header, 0);
+		}
+	}
+
+	/**
+	 * Returns the number of documents in this index.
+	 *
+	 * @return Number of documents
+	 */
+	int docCount() {
+		return docCount;
+	}
+
+	/**
+	 * Returns the number of distinct terms in this index.
+	 *
+	 * @return Number of terms
+	 */
+	int termCount() {
+		return termCount;
+	}
+
+	/**
+	 * Returns the number of documents in this index that were not removed before it was written.
+	 *
+	 * @return Number of live documents
+	 */
+	int liveCount() {
+		return liveCount;
+	}
+
+	/**
+	 * Returns the sum of the lengths of the documents that were not removed.
+	 *
+	 * @return Total length of live documents
+	 */
+	long totalLength() {
+		return totalLength;
+	}
+
+	/**
+	 * Returns the name of a document.
+	 *
+	 * @param docId Id of the document, 0..docCount()-1
+	 * @return Document name
+	 */
+	String document(int docId) {
+		String name = docNames[docId];
+		if (name == null) {
+			int[] pos = {buf.getInt(docTablePos + 4*docId)};
+			int len = vint(pos);
+			name = utf8(pos[0], len);
+			docNames[docId] = name;
+		}
+		return name;
+	}
+
+	/**
+	 * Returns the length of a document.
+	 *
+	 * @param docId Id of the document, 0..docCount()-1
+	 * @return Number of keywords in the document
+	 */
+	int length(int docId) {
+		int[] pos = {buf.getInt(docTablePos + 4*docId)};
+		int len = vint(pos);
+		pos[0] += len;
+		return vint(pos);
+	}
+
+	/**
+	 * Looks up the postings of a keyword, to be read in place from the file.
+	 *
+	 * @param keyword Keyword
+	 * @return Postings of the keyword in descending order of frequencies, or null if the
+	 *         keyword is not in the index
+	 */
+	Postings scan(String keyword) {
+		int[] pos = find(keyword.getBytes(StandardCharsets.UTF_8));
+		if (pos == null) {
+			return null;
+		}
+		return new Postings(pos);
+	}
+
+	/**
+	 * Looks up and decodes the postings of a keyword.
+	 *
+	 * @param keyword Keyword
+	 * @return Postings of the keyword in descending order of frequencies, or null if the
+	 *         keyword is not in the index
+	 */
+	PostingList postings(String keyword) {
+		int[] pos = find(keyword.getBytes(StandardCharsets.UTF_8));
+		if (pos == null) {
+			return null;
+		}
+		return decode(pos);
+	}
+
+	/**
+	 * Returns a term by its position in the term table.
+	 *
+	 * @param index Position of the term, 0..termCount()-1, in UTF-8 byte order of terms
+	 * @return Term
+	 */
+	String term(int index) {
+		int[] pos = {buf.getInt(termTablePos + 4*index)};
+		int len = vint(pos);
+		return utf8(pos[0], len);
+	}
+
+	/**
+	 * Decodes the postings of a term by its position in the term table.
+	 *
+	 * @param index Position of the term, 0..termCount()-1
+	 * @return Postings of the term in descending order of frequencies
+	 */
+	PostingList postings(int index) {
+		int[] pos = {buf.getInt(termTablePos + 4*index)};
+		int len = vint(pos);
+		pos[0] += len;
+		return decode(pos);
+	}
+
+	/**
+	 * Decodes the postings that start at pos[0].
+	 */
+	private PostingList decode(int[] pos) {
+		int n = vint(pos);
+		PostingList occs = new PostingList(n);
+		int freq = 0;
+		for (int i=0; i < n; i++) {
+			int doc = vint(pos);
+			freq = i == 0 ? vint(pos) : freq - vint(pos);
+			occs.add(doc, freq);
+		}
+		return occs;
+	}
+
+	/**
+	 * Binary searches the term table for a term.
+	 *
+	 * @param term UTF-8 bytes of the term
+	 * @return One element array holding the file position just past the term's bytes,
+	 *         or null if the term is not in the index
+	 */
+	private int[] find(byte[] term) {
+		int lo = 0, hi = termCount-1;
+		while (lo <= hi) {
+			int mid = (lo+hi) >>> 1;
+			int[] pos = {buf.getInt(termTablePos + 4*mid)};
+			int len = vint(pos);
+			int c = compare(pos[0], len, term);
+			if (c == 0) {
+				pos[0] += len;
+				return pos;
+			}
+			if (c < 0) {
+				lo = mid+1;
+			} else {
+				hi = mid-1;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compares len bytes of the file at pos with term, as unsigned bytes.
+	 */
+	private int compare(int pos, int len, byte[] term) {
+		int n = Math.min(len, term.length);
+		for (int i=0; i < n; i++) {
+			int c = (buf.get(pos+i) & 0xff) - (term[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return len - term.length;
+	}
+
+	/**
+	 * Reads a vint at pos[0], and advances pos[0] past it.
+	 */
+	private int vint(int[] pos) {
+		int p = pos[0];
+		int b = buf.get(p++);
+		int v = b & 0x7f;
+		for (int shift=7; b < 0; shift+=7) {
+			b = buf.get(p++);
+			v |= (b & 0x7f) << shift;
+		}
+		pos[0] = p;
+		return v;
+	}
+
+	/**
+	 * Decodes len bytes of the file at pos as UTF-8.
+	 */
+	private String utf8(int pos, int len) {
+		byte[] b = new byte[len];
+		for (int i=0; i < len; i++) {
+			b[i] = buf.get(pos+i);
+		}
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Postings of a term read one at a time straight from the mapped file, front to back,
+	 * so that a search only decodes as many postings as it looks at, and none are copied to
+	 * the heap.
+	 */
+	class Postings {
+		/**
+		 * File position of the next posting
+		 */
+		private final int[] pos;
+
+		private final int size;
+
+		/**
+		 * Number of postings not read yet
+		 */
+		private int left;
+
+		private int doc, freq;
+
+		/**
+		 * Initializes these postings on the file, at the posting count of a term.
+		 */
+		private Postings(int[] pos) {
+			this.pos = pos;
+			size = vint(pos);
+			left = size;
+		}
+
+		/**
+		 * Returns the number of postings.
+		 *
+		 * @return Number of postings, read or not
+		 */
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Moves to the next posting.
+		 *
+		 * @return False if there are no more postings
+		 */
+		boolean next() {
+			if (left == 0) {
+				return false;
+			}
+			doc = vint(pos);
+			freq = left == size ? vint(pos) : freq - vint(pos);
+			left--;
+			return true;
+		}
+
+		/**
+		 * Reads the next postings, up to as many as fit in docs.
+		 *
+		 * @param docs Filled with the document ids
+		 * @param freqs Filled with the frequencies, null if not needed
+		 * @return Number of postings read, 0 if there are no more
+		 */
+		int read(int[] docs, int[] freqs) {
+			int n = 0;
+			for (; n < docs.length && next(); n++) {
+				docs[n] = doc;
+				if (freqs != null) {
+					freqs[n] = freq;
+				}
+			}
+			return n;
+		}
+
+		/**
+		 * Returns the document id of the current posting.
+		 *
+		 * @return Document id
+		 */
+		int doc() {
+			return doc;
+		}
+
+		/**
+		 * Returns the frequency of the current posting.
+		 *
+		 * @return Frequency
+		 */
+		int freq() {
+			return freq;
+		}
+	}
+
+	/**
+	 * Buffered output to a file channel that keeps track of the file position.
+	 */
+	private static class Output {
+		FileChannel ch;
+		ByteBuffer buf = ByteBuffer.allocate(64*1024);
+		long pos;
+
+		Output(FileChannel ch) {
+			this.ch = ch;
+		}
+
+		/**
+		 * Returns the file position, which must fit in the 4 byte positions of the file.
+		 *
+		 * @throws IOException If the file has grown past 2GB
+		 */
+		int at() throws IOException {
+			if (pos > Integer.MAX_VALUE) {
+				throw new IOException("index file would be larger than 2GB");
+			}
+			return (int)pos;
+		}
+
+		void vint(int v) throws IOException {
+			while ((v & ~0x7f) != 0) {
+				byte1((v & 0x7f) | 0x80);
+				v >>>= 7;
+			}
+			byte1(v);
+		}
+
+		void int4(int v) throws IOException {
+			if (buf.remaining() < 4) {
+				flush();
+			}
+			buf.putInt(v);
+			pos += 4;
+		}
+
+		void bytes(byte[] b) throws IOException {
+			for (byte x : b) {
+				byte1(x);
+			}
+		}
+
+		void byte1(int b) throws IOException {
+			if (!buf.hasRemaining()) {
+				flush();
+			}
+			buf.put((byte)b);
+			pos++;
+		}
+
+		void flush() throws IOException {
+			buf.flip();
+			while (buf.hasRemaining()) {
+				ch.write(buf);
+			}
+			buf.clear();
+		}
+	}
+}
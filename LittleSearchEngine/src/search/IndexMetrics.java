@@ -0,0 +1,245 @@
+package search;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+/**
+ * Counters and timers of a search engine: how many documents, words and postings indexing
+ * went through, how long it spent reading documents, merging their keywords into posting
+ * lists and sorting the lists, and how long each search took. Counters are LongAdders, which
+ * threads update without contending, and search latencies go in a LatencyHistogram.
+ *
+ * An engine only keeps metrics once they are turned on with enableMetrics; until then it
+ * does not even read the clock. The metrics can be read all at once with snapshot, or
+ * watched over JMX once registered.
+ *
+ * Times spent by the worker threads of the parallel makeIndex are summed over the threads,
+ * so they can add up to more than the time makeIndex took.
+ *
+ */
+public class IndexMetrics implements IndexMetricsMXBean {
+
+	/**
+	 * The metrics at one point in time.
+	 */
+	public static class Snapshot {
+		public final long documentsIndexed, tokensProcessed, noiseWordsDropped;
+		public final long postingsAdded, postingListsCreated;
+		public final long tokenizeNanos, mergeNanos, sortNanos;
+		public final long queries, queryNanosTotal;
+		public final long queryNanosP50, queryNanosP90, queryNanosP99, queryNanosP999, queryNanosMax;
+
+		Snapshot(IndexMetrics m) {
+			documentsIndexed = m.documents.sum();
+			tokensProcessed = m.tokens.sum();
+			noiseWordsDropped = m.noiseWords.sum();
+			postingsAdded = m.postings.sum();
+			postingListsCreated = m.lists.sum();
+			tokenizeNanos = m.tokenizeNanos.sum();
+			mergeNanos = m.mergeNanos.sum();
+			sortNanos = m.sortNanos.sum();
+			queries = m.latency.count();
+			queryNanosTotal = m.latency.total();
+			queryNanosP50 = m.latency.percentile(50);
+			queryNanosP90 = m.latency.percentile(90);
+			queryNanosP99 = m.latency.percentile(99);
+			queryNanosP999 = m.latency.percentile(99.9);
+			queryNanosMax = m.latency.max();
+		}
+
+		public String toString() {
+			return String.format("documents=%d tokens=%d noise=%d postings=%d lists=%d " +
+				"tokenize=%.1fms merge=%.1fms sort=%.1fms queries=%d " +
+				"p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+				documentsIndexed, tokensProcessed, noiseWordsDropped, postingsAdded,
+				postingListsCreated, tokenizeNanos/1e6, mergeNanos/1e6, sortNanos/1e6, queries,
+				queryNanosP50/1e3, queryNanosP90/1e3, queryNanosP99/1e3, queryNanosP999/1e3,
+				queryNanosMax/1e3);
+		}
+	}
+
+	private final LongAdder documents = new LongAdder(), tokens = new LongAdder(),
+		noiseWords = new LongAdder(), postings = new LongAdder(), lists = new LongAdder();
+
+	private final LongAdder tokenizeNanos = new LongAdder(), mergeNanos = new LongAdder(),
+		sortNanos = new LongAdder();
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * Name these metrics are registered under with the platform MBean server, null if they
+	 * are not registered.
+	 */
+	private ObjectName objectName;
+
+	IndexMetrics() {
+	}
+
+	/**
+	 * Records the reading of a document.
+	 *
+	 * @param words Number of words in the document
+	 * @param noise Number of them that were noise words
+	 * @param nanos Time taken
+	 */
+	void tokenized(int words, int noise, long nanos) {
+		tokens.add(words);
+		noiseWords.add(noise);
+		tokenizeNanos.add(nanos);
+	}
+
+	/**
+	 * Records postings added to posting lists.
+	 *
+	 * @param added Number of postings added
+	 * @param created Number of posting lists created for new keywords
+	 * @param nanos Time taken
+	 */
+	void merged(int added, int created, long nanos) {
+		postings.add(added);
+		lists.add(created);
+		mergeNanos.add(nanos);
+	}
+
+	/**
+	 * Records documents added to the index.
+	 *
+	 * @param docs Number of documents
+	 */
+	void indexed(int docs) {
+		documents.add(docs);
+	}
+
+	/**
+	 * Records the sorting of posting lists built in bulk.
+	 *
+	 * @param nanos Time taken
+	 */
+	void sorted(long nanos) {
+		sortNanos.add(nanos);
+	}
+
+	/**
+	 * Records a search.
+	 *
+	 * @param nanos Time taken
+	 */
+	void searched(long nanos) {
+		latency.record(nanos);
+	}
+
+	/**
+	 * Returns the current metrics.
+	 *
+	 * @return Snapshot of the metrics
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server, under the name
+	 * search:type=IndexMetrics,name=&lt;name&gt;.
+	 *
+	 * @param name Name of the engine, unique among registered engines
+	 * @throws IllegalArgumentException If the metrics could not be registered under the name
+	 * @throws IllegalStateException If the metrics are already registered
+	 */
+	public synchronized void register(String name) {
+		if (objectName != null) {
+			throw new IllegalStateException("metrics are already registered as " + objectName);
+		}
+		try {
+			ObjectName on = new ObjectName("search:type=IndexMetrics,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+			objectName = on;
+		} catch (JMException e) {
+			throw new IllegalArgumentException("could not register metrics as " + name, e);
+		}
+	}
+
+	/**
+	 * Unregisters these metrics from the platform MBean server, if they are registered.
+	 */
+	public synchronized void unregister() {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			// already gone
+		}
+		objectName = null;
+	}
+
+	public long getDocumentsIndexed() {
+		return documents.sum();
+	}
+
+	public long getTokensProcessed() {
+		return tokens.sum();
+	}
+
+	public long getNoiseWordsDropped() {
+		return noiseWords.sum();
+	}
+
+	public long getPostingsAdded() {
+		return postings.sum();
+	}
+
+	public long getPostingListsCreated() {
+		return lists.sum();
+	}
+
+	public long getTokenizeMillis() {
+		return tokenizeNanos.sum() / 1_000_000;
+	}
+
+	public long getMergeMillis() {
+		return mergeNanos.sum() / 1_000_000;
+	}
+
+	public long getSortMillis() {
+		return sortNanos.sum() / 1_000_000;
+	}
+
+	public long getQueries() {
+		return latency.count();
+	}
+
+	public double getQueryLatencyMeanMicros() {
+		long n = latency.count();
+		return n == 0 ? 0 : latency.total() / 1e3 / n;
+	}
+
+	public double getQueryLatencyP50Micros() {
+		return latency.percentile(50) / 1e3;
+	}
+
+	public double getQueryLatencyP90Micros() {
+		return latency.percentile(90) / 1e3;
+	}
+
+	public double getQueryLatencyP99Micros() {
+		return latency.percentile(99) / 1e3;
+	}
+
+	public double getQueryLatencyMaxMicros() {
+		return latency.max() / 1e3;
+	}
+
+	public void reset() {
+		documents.reset();
+		tokens.reset();
+		noiseWords.reset();
+		postings.reset();
+		lists.reset();
+		tokenizeNanos.reset();
+		mergeNanos.reset();
+		sortNanos.reset();
+		latency.reset();
+	}
+}
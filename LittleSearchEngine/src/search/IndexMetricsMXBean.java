@@ -0,0 +1,43 @@
+package search;
+
+/**
+ * Management interface of IndexMetrics, through which the indexing counters and query
+ * latencies of a search engine can be watched over JMX. Times are in milliseconds, and
+ * query latencies in microseconds.
+ *
+ */
+public interface IndexMetricsMXBean {
+
+	long getDocumentsIndexed();
+
+	long getTokensProcessed();
+
+	long getNoiseWordsDropped();
+
+	long getPostingsAdded();
+
+	long getPostingListsCreated();
+
+	long getTokenizeMillis();
+
+	long getMergeMillis();
+
+	long getSortMillis();
+
+	long getQueries();
+
+	double getQueryLatencyMeanMicros();
+
+	double getQueryLatencyP50Micros();
+
+	double getQueryLatencyP90Micros();
+
+	double getQueryLatencyP99Micros();
+
+	double getQueryLatencyMaxMicros();
+
+	/**
+	 * Sets all counters back to 0, and drops all recorded query latencies.
+	 */
+	void reset();
+}
@@ -0,0 +1,248 @@
+package search;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.*;
+
+/**
+ * Splits a stream of characters into whitespace separated words, and picks out the keywords
+ * among them, using the same rules as LittleSearchEngine.getKeyWord. Characters are read in
+ * blocks into a reusable buffer, and every word is lower cased, stripped of trailing
+ * punctuation and checked for letters in a single pass over a reusable token array, so no
+ * objects are created per word. A String is only created when a keyword is seen for the
+ * first time by the term table it is added to.
+ *
+ * Input is read from a byte channel into a direct buffer, and decoded from UTF-8 straight into
+ * the character buffer that words are scanned from, so memory use is fixed no matter how large
+ * the input is. Words longer than MAX_WORD characters are skipped without being copied. The
+ * tokenizer does not close the channel.
+ *
+ */
+class KeywordTokenizer {
+
+	/**
+	 * Longest word that is looked at. Longer words are not taken to be keywords.
+	 */
+	static final int MAX_WORD = 256;
+
+	/**
+	 * Bytes are read from here.
+	 */
+	private ReadableByteChannel in;
+
+	/**
+	 * Decodes bytes to characters, replacing malformed input.
+	 */
+	private CharsetDecoder decoder;
+
+	/**
+	 * Bytes read from the channel and not yet decoded, from position to limit. The buffer is
+	 * direct, and reused by every tokenizer on the same thread.
+	 */
+	private ByteBuffer bytes;
+
+	/**
+	 * True once the channel has no more bytes, and once the decoder has been flushed.
+	 */
+	private boolean eof, flushed;
+
+	/**
+	 * Direct read buffer of each thread.
+	 */
+	private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+		ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(64*1024));
+
+	/**
+	 * Noise words, in lower case.
+	 */
+	private TermTable noiseWords;
+
+	/**
+	 * Block of characters read from the input, valid from pos to limit-1.
+	 */
+	private char[] buf;
+	private int pos, limit;
+
+	/**
+	 * Characters of the word being scanned.
+	 */
+	private char[] token;
+
+	/**
+	 * Number of words scanned so far, keywords or not.
+	 */
+	private int words;
+
+	/**
+	 * Number of noise words scanned so far.
+	 */
+	private int noise;
+
+	/**
+	 * Initializes this tokenizer on the given input.
+	 *
+	 * @param in Input bytes, in UTF-8
+	 * @param noiseWords Table of noise words, in lower case
+	 */
+	KeywordTokenizer(ReadableByteChannel in, TermTable noiseWords) {
+		this.in = in;
+		this.noiseWords = noiseWords;
+		decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		bytes = READ_BUFFER.get();
+		bytes.clear().flip();
+		buf = new char[8192];
+		token = new char[32];
+	}
+
+	/**
+	 * Scans up to the next keyword in the input, and adds it to the given term table.
+	 *
+	 * @param terms Table that keywords are added to
+	 * @return Id of the keyword in terms, or -1 if the input has no more keywords
+	 * @throws IOException If the input could not be read
+	 */
+	int next(TermTable terms)
+	throws IOException {
+		while (true) {
+			// skip white space
+			do {
+				if (pos == limit && !fill()) {
+					return -1;
+				}
+			} while (Character.isWhitespace(buf[pos++]));
+			pos--;
+
+			// copy the word into token, or just count it if it is too long
+			int len = 0;
+			while (true) {
+				if (pos == limit && !fill()) {
+					break;
+				}
+				char ch = buf[pos];
+				if (Character.isWhitespace(ch)) {
+					break;
+				}
+				if (len < MAX_WORD) {
+					if (len == token.length) {
+						char[] t = new char[len*2];
+						System.arraycopy(token, 0, t, 0, len);
+						token = t;
+					}
+					token[len] = ch;
+				}
+				len++;
+				pos++;
+			}
+			words++;
+			if (len > MAX_WORD) {
+				continue;
+			}
+
+			len = keywordLength(token, len);
+			if (len > 0) {
+				if (noiseWords.find(token, 0, len) == -1) {
+					return terms.add(token, 0, len);
+				}
+				noise++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the position of the keyword last returned by next, counting every word in the
+	 * input, keyword or not, from 0.
+	 *
+	 * @return Word position
+	 */
+	int position() {
+		return words-1;
+	}
+
+	/**
+	 * Returns the number of words scanned so far, keywords or not.
+	 *
+	 * @return Number of words
+	 */
+	int words() {
+		return words;
+	}
+
+	/**
+	 * Returns the number of noise words scanned so far.
+	 *
+	 * @return Number of noise words
+	 */
+	int noiseWords() {
+		return noise;
+	}
+
+	/**
+	 * Decodes the next block of characters into buf, reading more bytes from the channel
+	 * as needed.
+	 *
+	 * @return False if the input has no more characters
+	 */
+	private boolean fill()
+	throws IOException {
+		CharBuffer out = CharBuffer.wrap(buf);
+		while (out.position() == 0) {
+			if (eof) {
+				if (flushed) {
+					break;
+				}
+				decoder.decode(bytes, out, true);
+				decoder.flush(out);
+				flushed = true;
+				continue;
+			}
+			decoder.decode(bytes, out, false);
+			if (out.position() == 0) {
+				bytes.compact();
+				eof = in.read(bytes) < 0;
+				bytes.flip();
+			}
+		}
+		pos = 0;
+		limit = out.position();
+		return limit > 0;
+	}
+
+	/**
+	 * Applies the keyword rules (other than the noise word test) to a word, in one pass:
+	 * the word is lower cased in place, trailing punctuation is dropped, and the rest must
+	 * be all letters.
+	 *
+	 * @param word Characters of the word, lower cased in place
+	 * @param len Length of the word
+	 * @return Length of the keyword at the start of word, or -1 if the word is not a keyword
+	 */
+	static int keywordLength(char[] word, int len) {
+		int end = 0; // end of the word without trailing punctuation
+		boolean letters = true;
+		for (int i=0; i < len; i++) {
+			char ch = Character.toLowerCase(word[i]);
+			word[i] = ch;
+			if (!isPunctuation(ch)) {
+				if (end < i || !Character.isLetter(ch)) { // punctuation before a non punctuation char is not trailing
+					letters = false;
+				}
+				end = i+1;
+			}
+		}
+		return letters && end > 0 ? end : -1;
+	}
+
+	/**
+	 * Tells whether a character is one of the punctuation characters that are stripped
+	 * from the end of a word: '.', ',', '?', ':', ';' and '!'
+	 *
+	 * @param ch Character to test
+	 * @return True if ch is punctuation
+	 */
+	static boolean isPunctuation(char ch) {
+		return ch=='.'||ch==','||ch=='?'||ch==':'||ch==';'||ch=='!';
+	}
+}
@@ -0,0 +1,136 @@
+package search;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds, in log scale buckets: each power of two is split
+ * into SUB_BUCKETS linear buckets, so every recorded value is known to within 1/SUB_BUCKETS
+ * of itself, from 1 nanosecond up to centuries, in a few hundred counters. Recording a value
+ * is a couple of shifts and an atomic increment, and never allocates. Percentiles are read
+ * from the counters as they are, so a read that runs while values are being recorded may
+ * be off by the values recorded meanwhile.
+ *
+ */
+class LatencyHistogram {
+
+	/**
+	 * Number of buckets per power of two, a power of two itself.
+	 */
+	static final int SUB_BUCKETS = 8;
+
+	private static final int SUB_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+	/**
+	 * Number of values recorded in each bucket.
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray((64-SUB_BITS+1) * SUB_BUCKETS);
+
+	private final LongAdder count = new LongAdder(), total = new LongAdder();
+
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records a value.
+	 *
+	 * @param nanos Value, negative values are taken as 0
+	 */
+	void record(long nanos) {
+		long v = Math.max(nanos, 0);
+		counts.incrementAndGet(bucket(v));
+		count.increment();
+		total.add(v);
+		max.accumulate(v);
+	}
+
+	/**
+	 * Returns the bucket of a value: values below SUB_BUCKETS each have their own bucket, and
+	 * larger ones go by their highest bit and the SUB_BITS bits below it.
+	 */
+	static int bucket(long v) {
+		if (v < SUB_BUCKETS) {
+			return (int)v;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(v);
+		int mantissa = (int)(v >>> (exp-SUB_BITS)) & (SUB_BUCKETS-1);
+		return (exp-SUB_BITS+1)*SUB_BUCKETS + mantissa;
+	}
+
+	/**
+	 * Returns the largest value that goes in a bucket.
+	 */
+	static long highest(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exp = bucket/SUB_BUCKETS + SUB_BITS-1;
+		long low = (long)(SUB_BUCKETS + bucket%SUB_BUCKETS) << (exp-SUB_BITS);
+		return low + (1L << (exp-SUB_BITS)) - 1;
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 *
+	 * @return Number of values
+	 */
+	long count() {
+		return count.sum();
+	}
+
+	/**
+	 * Returns the sum of the values recorded.
+	 *
+	 * @return Sum of values
+	 */
+	long total() {
+		return total.sum();
+	}
+
+	/**
+	 * Returns the largest value recorded.
+	 *
+	 * @return Largest value, 0 if none were recorded
+	 */
+	long max() {
+		return max.get();
+	}
+
+	/**
+	 * Returns a percentile of the values recorded, rounded up to the largest value of its
+	 * bucket, but never above the largest value recorded.
+	 *
+	 * @param percentile Percentile, from 0 to 100
+	 * @return Value at the percentile, 0 if no values were recorded
+	 */
+	long percentile(double percentile) {
+		long n = 0;
+		for (int b=0; b < counts.length(); b++) {
+			n += counts.get(b);
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long)Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int b=0; b < counts.length(); b++) {
+			seen += counts.get(b);
+			if (seen >= rank) {
+				return Math.min(highest(b), max());
+			}
+		}
+		return max();
+	}
+
+	/**
+	 * Drops all recorded values.
+	 */
+	void reset() {
+		for (int b=0; b < counts.length(); b++) {
+			counts.set(b, 0);
+		}
+		count.reset();
+		total.reset();
+		max.reset();
+	}
+}
@@ -1,106 +1,498 @@
 package search;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntPredicate;
 
 /**
- * This class encapsulates an occurrence of a keyword in a document. It stores the
- * document name, and the frequency of occurrence in that document. Occurrences are
- * associated with keywords in an index hash table.
- * 
- * @author Sesh Venugopal
- * 
+ * This class builds an index of keywords. Each keyword maps to a set of documents in
+ * which it occurs, with frequency of occurrence in each document. Once the index is built,
+ * the documents can searched on for keywords.
+ *
  */
-class Occurrence {
+public class LittleSearchEngine {
+	
 	/**
-	 * Document in which a keyword occurs.
+	 * A document found by a search, with what it was ranked on: the frequency and the query
+	 * position of the keyword it was taken on by search, or its score in rankedSearch.
 	 */
-	String document;
+	static class Hit {
+		final int doc, freq, term;
+		final double score;
+		
+		Hit(int doc, int freq, int term, double score) {
+			this.doc = doc;
+			this.freq = freq;
+			this.term = term;
+			this.score = score;
+		}
+	}
 	
 	/**
-	 * The frequency (number of times) the keyword occurs in the above document.
+	 * This is a hash table of all keywords. The key is the actual keyword, and the associated value is
+	 * a posting list of all occurrences of the keyword in documents, with documents referred to by their
+	 * ids in the documents table. The posting list is maintained in descending order of occurrence
+	 * frequencies. In concurrent mode this is a ConcurrentHashMap, and posting lists in it are never
+	 * changed: an updated list is built as a copy and then put in place of the old one.
 	 */
-	int frequency;
+	Map<String,PostingList> keywordsIndex;
 	
 	/**
-	 * Initializes this occurrence with the given document,frequency pair.
-	 * 
-	 * @param doc Document name
-	 * @param freq Frequency
+	 * True if searches may run while documents are being merged into the index.
 	 */
-	public Occurrence(String doc, int freq) {
-		document = doc;
-		frequency = freq;
-	}
+	boolean concurrent;
 	
-	/* (non-Javadoc)
-	 * @see java.lang.Object#toString()
+	/**
+	 * True if the positions of keywords in documents are recorded, for phrase and near queries.
 	 */
-	public String toString() {
-		return "(" + document + "," + frequency + ")";
-	}
-}
-
-/**
- * This class builds an index of keywords. Each keyword maps to a set of documents in
- * which it occurs, with frequency of occurrence in each document. Once the index is built,
- * the documents can searched on for keywords.
- *
- */
-public class LittleSearchEngine {
+	boolean positional;
 	
 	/**
-	 * This is a hash table of all keywords. The key is the actual keyword, and the associated value is
-	 * an array list of all occurrences of the keyword in documents. The array list is maintained in descending
-	 * order of occurrence frequencies.
+	 * Serializes writers in concurrent mode. Readers never take it.
+	 */
+	private final Object writeLock = new Object();
+	
+	/**
+	 * Ids of removed documents. Their postings stay in the posting lists until the next
+	 * compaction, and are skipped by searches. The set is replaced by an updated copy on
+	 * every removal, so it can be read without locking.
+	 */
+	volatile BitSet deleted = new BitSet();
+	
+	/**
+	 * Number of documents removed since the last compaction.
+	 */
+	int pendingDeletes;
+	
+	/**
+	 * Posting lists are compacted once the documents removed since the last compaction
+	 * exceed this fraction of all indexed documents.
+	 */
+	static final double COMPACT_RATIO = 0.25;
+	
+	/**
+	 * False to leave compaction to the caller, as ShardedSearchEngine does so that all its
+	 * shards are compacted at the same time.
+	 */
+	boolean autoCompact = true;
+	
+	/**
+	 * Cache of search results, null if caching is off.
+	 */
+	QueryCache queryCache;
+	
+	/**
+	 * Table of all indexed documents, which gives each document an integer id.
 	 */
-	HashMap<String,ArrayList<Occurrence>> keywordsIndex;
+	DocTable documents;
 	
 	/**
-	 * The hash table of all noise words - mapping is from word to itself.
+	 * The hash table of all noise words - mapping is from word to itself. Noise words are
+	 * stored in lower case, so that a lower cased word can be looked up directly.
 	 */
 	HashMap<String,String> noiseWords;
 	
+	/**
+	 * The same noise words as in noiseWords, in a table that can be looked up without
+	 * creating a String for each word scanned from a document.
+	 */
+	TermTable noiseTable;
+	
+	/**
+	 * Index file that searches are served from, null if the index is held in keywordsIndex.
+	 */
+	IndexFile indexFile;
+	
+	/**
+	 * Statistics for ranked search, replaced when documents change.
+	 */
+	private volatile Ranker ranker;
+	
+	/**
+	 * Sorted dictionary of all keywords, for prefix, wildcard and fuzzy lookups. It is built at
+	 * the end of makeIndex, and rebuilt when next needed after keywords are added or dropped.
+	 */
+	private volatile TermDictionary dictionary;
+	
+	/**
+	 * Incremented whenever a keyword is added to or dropped from the index.
+	 */
+	private volatile long termsVersion;
+	
+	private final Object dictionaryLock = new Object();
+	
+	/**
+	 * Indexing and search metrics, null unless turned on by enableMetrics.
+	 */
+	private volatile IndexMetrics metrics;
+	
 	/**
 	 * Creates the keyWordsIndex and noiseWords hash tables.
 	 */
 	public LittleSearchEngine() {
-		keywordsIndex = new HashMap<String,ArrayList<Occurrence>>(1000,2.0f);
+		this(false);
+	}
+	
+	/**
+	 * Creates the keyWordsIndex and noiseWords hash tables, optionally for concurrent use. In
+	 * concurrent mode, any number of threads may search while documents are being merged into
+	 * the index. Searches never block: each posting list a search reads is a complete snapshot,
+	 * which later merges replace but never change. Writers are serialized among themselves.
+	 * 
+	 * @param concurrent True to allow searches while the index is being changed
+	 */
+	public LittleSearchEngine(boolean concurrent) {
+		this(concurrent, false);
+	}
+	
+	/**
+	 * Creates the keyWordsIndex and noiseWords hash tables, optionally for concurrent use, and
+	 * optionally recording the positions of keywords in documents. Positions are needed for
+	 * phrase and near queries, and cost about a byte per keyword occurrence. They are not
+	 * saved by saveIndex.
+	 * 
+	 * @param concurrent True to allow searches while the index is being changed
+	 * @param positional True to record keyword positions
+	 */
+	public LittleSearchEngine(boolean concurrent, boolean positional) {
+		this.concurrent = concurrent;
+		this.positional = positional;
+		if (concurrent) {
+			keywordsIndex = new ConcurrentHashMap<String,PostingList>(1000);
+		} else {
+			keywordsIndex = new HashMap<String,PostingList>(1000,2.0f);
+		}
+		documents = new DocTable();
 		noiseWords = new HashMap<String,String>(100,2.0f);
+		noiseTable = new TermTable();
 	}
 	
 	/**
 	 * This method indexes all keywords found in all the input documents. When this
 	 * method is done, the keywordsIndex hash table will be filled with all keywords,
-	 * each of which is associated with an array list of Occurrence objects, arranged
-	 * in decreasing frequencies of occurrence.
+	 * each of which is associated with a posting list of (document id, frequency) pairs,
+	 * arranged in decreasing frequencies of occurrence.
+	 * 
+	 * The index is built in bulk: occurrences are appended to their posting lists unsorted,
+	 * and each list is sorted once at the end, instead of inserting every occurrence in place
+	 * as mergeKeyWords does. The result is the same as merging the documents one by one.
+	 * Lists of at least PostingList.MIN_PACKED postings are then packed into compressed blocks,
+	 * which searches decode a block at a time.
 	 * 
 	 * @param docsFile Name of file that has a list of all the document file names, one name per line
 	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
-	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk,
+	 *         in which case no document is added to the index
 	 */
 	public void makeIndex(String docsFile, String noiseWordsFile) 
 	throws FileNotFoundException {
+		checkWritable();
 		// load noise words to hash table
-		Scanner sc = new Scanner(new File(noiseWordsFile));
+		loadNoiseWords(noiseWordsFile);
+		
+		ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
 		while (sc.hasNext()) {
-			String word = sc.next();
-			noiseWords.put(word,word);
+			docs.add(sc.next());
 		}
+		sc.close();
 		
 		// index all keywords
-		sc = new Scanner(new File(docsFile));
+		synchronized (writeLock) {
+			HashMap<String,PostingList> part = new HashMap<String,PostingList>(1000,2.0f);
+			int[] docIds = nextIds(docs);
+			int[] lengths = new int[docIds.length];
+			for (int d=0; d < docIds.length; d++) {
+				HashMap<String,Occurrence> kws = loadKeyWords(docs.get(d));
+				appendKeyWords(kws, docIds[d], part, 0, 1);
+				lengths[d] = length(kws);
+			}
+			register(docs, lengths);
+			sortPostings(part);
+			publish(part);
+			IndexMetrics m = metrics;
+			if (m != null) {
+				m.indexed(docIds.length);
+			}
+		}
+		termDictionary();
+	}
+	
+	/**
+	 * Parallel version of makeIndex. Documents are loaded by a pool of worker threads, each
+	 * running loadKeyWords on its own documents. The keyword space is then split into as many
+	 * disjoint stripes as there are threads, and each thread appends the occurrences of its own
+	 * stripe, in document order, to a private table, then sorts its lists. Since no two threads
+	 * ever touch the same keyword, no locking is needed, and the resulting index is identical to
+	 * the one built by the sequential makeIndex.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param threads Number of worker threads, must be at least 1
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk,
+	 *         in which case no document is added to the index
+	 */
+	public void makeIndex(String docsFile, String noiseWordsFile, int threads)
+	throws FileNotFoundException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("need at least one thread, got " + threads);
+		}
+		checkWritable();
+		loadNoiseWords(noiseWordsFile);
+		
+		ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
 		while (sc.hasNext()) {
-			String docFile = sc.next();
-			HashMap<String,Occurrence> kws = loadKeyWords(docFile);
-			mergeKeyWords(kws);
+			docs.add(sc.next());
+		}
+		sc.close();
+		
+		synchronized (writeLock) {
+			mergeInParallel(docs, threads);
 		}
+		termDictionary();
+	}
+	
+	/**
+	 * Indexes documents with a pool of worker threads, as described in the parallel makeIndex.
+	 * 
+	 * @param docs Names of the documents
+	 * @param threads Number of worker threads
+	 * @throws FileNotFoundException If a document is not found on disk
+	 */
+	private void mergeInParallel(ArrayList<String> docs, int threads)
+	throws FileNotFoundException {
+		// documents are numbered up front, in the same order as the sequential makeIndex, but
+		// only get their ids once all of them are loaded
+		final int[] docIds = nextIds(docs);
 		
+		ExecutorService loaders = Executors.newFixedThreadPool(threads);
+		ExecutorService mergers = Executors.newFixedThreadPool(threads);
+		try {
+			final ArrayList<Future<HashMap<String,Occurrence>>> loads = 
+				new ArrayList<Future<HashMap<String,Occurrence>>>(docs.size());
+			for (final String docFile : docs) {
+				loads.add(loaders.submit(() -> loadKeyWords(docFile)));
+			}
+			
+			// each stripe walks the documents in order, waiting for each one to be loaded
+			ArrayList<Future<HashMap<String,PostingList>>> stripes =
+				new ArrayList<Future<HashMap<String,PostingList>>>(threads);
+			for (int s=0; s < threads; s++) {
+				final int stripe = s;
+				final int numStripes = threads;
+				stripes.add(mergers.submit(() -> {
+					HashMap<String,PostingList> part = new HashMap<String,PostingList>(1000,2.0f);
+					for (int d=0; d < docIds.length; d++) {
+						appendKeyWords(loads.get(d).get(), docIds[d], part, stripe, numStripes);
+					}
+					sortPostings(part);
+					return part;
+				}));
+			}
+			
+			int[] lengths = new int[docIds.length];
+			for (int d=0; d < docIds.length; d++) {
+				lengths[d] = length(loads.get(d).get());
+			}
+			register(docs, lengths);
+			for (Future<HashMap<String,PostingList>> stripe : stripes) {
+				publish(stripe.get());
+			}
+			IndexMetrics m = metrics;
+			if (m != null) {
+				m.indexed(docIds.length);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("indexing was interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			while (cause instanceof ExecutionException) {
+				cause = cause.getCause();
+			}
+			if (cause instanceof FileNotFoundException) {
+				throw (FileNotFoundException)cause;
+			}
+			throw new IllegalStateException("indexing failed", cause);
+		} finally {
+			loaders.shutdownNow();
+			mergers.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Works out the ids that documents will get from the documents table, without handing
+	 * them out, so that a makeIndex that fails to load a document leaves the table as it was.
+	 * Must be called with the write lock held, and followed by register once all documents
+	 * are loaded.
+	 * 
+	 * @param docs Names of the documents, in the order they are to be numbered
+	 * @return Id of each document
+	 */
+	private int[] nextIds(ArrayList<String> docs) {
+		int[] docIds = new int[docs.size()];
+		HashMap<String,Integer> added = new HashMap<String,Integer>();
+		int next = documents.size();
+		for (int d=0; d < docIds.length; d++) {
+			String name = docs.get(d);
+			int id = documents.find(name);
+			if (id == -1) {
+				Integer prev = added.putIfAbsent(name, next);
+				id = prev == null ? next++ : prev;
+			}
+			docIds[d] = id;
+		}
+		return docIds;
+	}
+	
+	/**
+	 * Hands out the ids worked out by nextIds, and sets the lengths of the documents.
+	 * 
+	 * @param docs Names of the documents, as given to nextIds
+	 * @param lengths Length of each document
+	 */
+	private void register(ArrayList<String> docs, int[] lengths) {
+		for (int d=0; d < lengths.length; d++) {
+			documents.setLength(documents.id(docs.get(d)), lengths[d]);
+		}
+	}
+	
+	/**
+	 * Loads the noise words file into the noiseWords hash table.
+	 * 
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If the noise words file is not found on disk
+	 */
+	private void loadNoiseWords(String noiseWordsFile)
+	throws FileNotFoundException {
+		Scanner sc = new Scanner(new File(noiseWordsFile));
+		while (sc.hasNext()) {
+			addNoiseWord(sc.next());
+		}
+		sc.close();
+	}
+	
+	/**
+	 * Adds a word to the noise words. The word is added to both the noiseWords hash table
+	 * and the noise words table used when scanning documents.
+	 * 
+	 * @param word Noise word
+	 */
+	void addNoiseWord(String word) {
+		word = word.toLowerCase();
+		noiseWords.put(word,word);
+		noiseTable.add(word);
+	}
+	
+	/**
+	 * Adds a single document to the index. Only the posting lists of the document's keywords
+	 * are changed, and each stays in descending order of frequencies.
+	 * 
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @throws IllegalArgumentException If the document is already indexed
+	 */
+	public void addDocument(String docFile)
+	throws FileNotFoundException {
+		checkWritable();
+		HashMap<String,Occurrence> kws = loadKeyWords(docFile);
+		synchronized (writeLock) {
+			if (documents.find(docFile) != -1) {
+				throw new IllegalArgumentException(docFile + " is already indexed");
+			}
+			documents.id(docFile);
+			mergeKeyWords(kws);
+		}
+	}
+	
+	/**
+	 * Removes a single document from the index. Removal is lazy: the document is marked as
+	 * deleted, and searches skip it from then on, but its postings are only dropped when
+	 * the posting lists are next compacted, which happens automatically once enough
+	 * documents have been removed.
+	 * 
+	 * @param docFile Name of the document file
+	 * @return True if the document was in the index
+	 */
+	public boolean removeDocument(String docFile) {
+		checkWritable();
+		synchronized (writeLock) {
+			int id = documents.find(docFile);
+			if (id == -1) {
+				return false;
+			}
+			documents.remove(docFile);
+			BitSet del = (BitSet)deleted.clone();
+			del.set(id);
+			deleted = del;
+			pendingDeletes++;
+			QueryCache cache = queryCache;
+			if (cache != null) {
+				cache.invalidateDocument(docFile);
+			}
+			if (autoCompact && pendingDeletes > COMPACT_RATIO*documents.size()) {
+				compact();
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Re-indexes a single document whose contents have changed. The old version is removed,
+	 * and the new version is added under a new document id.
+	 * 
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public void updateDocument(String docFile)
+	throws FileNotFoundException {
+		checkWritable();
+		HashMap<String,Occurrence> kws = loadKeyWords(docFile);
+		synchronized (writeLock) {
+			removeDocument(docFile);
+			documents.id(docFile);
+			mergeKeyWords(kws);
+		}
+	}
+	
+	/**
+	 * Drops the postings of all removed documents from the posting lists, and drops keywords
+	 * that are left with no postings. Each changed list is replaced by a compacted copy,
+	 * which is packed if it is long enough.
+	 */
+	public void compact() {
+		checkWritable();
+		synchronized (writeLock) {
+			if (pendingDeletes == 0) {
+				return;
+			}
+			BitSet del = deleted;
+			Iterator<Map.Entry<String,PostingList>> it = keywordsIndex.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String,PostingList> entry = it.next();
+				PostingList occs = entry.getValue().without(del);
+				if (occs.size() == 0) {
+					it.remove();
+					termsVersion++;
+				} else if (occs.size() != entry.getValue().size()) {
+					occs.pack();
+					entry.setValue(occs);
+				}
+			}
+			pendingDeletes = 0;
+		}
 	}
 
 	/**
 	 * Scans a document, and loads all keywords found into a hash table of keyword occurrences
-	 * in the document. Uses the getKeyWord method to separate keywords from other words.
+	 * in the document. Keywords are separated from other words by a KeywordTokenizer, which
+	 * applies the same rules as the getKeyWord method without creating a String per word.
+	 * The document is streamed through a fixed size buffer, and its file is closed before
+	 * this method returns, also when reading fails.
 	 * 
 	 * @param docFile Name of the document file to be scanned and loaded
 	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
@@ -110,66 +502,259 @@ public class LittleSearchEngine {
 	throws FileNotFoundException {
 		// COMPLETE THIS METHOD
 		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE METHOD COMPILE
-		HashMap<String, Occurrence> kws = new HashMap<String,Occurrence>(1000,2.0f);
-		Scanner sc = new Scanner(new File(docFile));
-		while(sc.hasNext())   // abc text tomorrow the tomorrow abc
+		TermTable terms = new TermTable(); //keywords of this document, by id
+		int[] freqs = new int[256]; //frequency of each keyword, by id
+		byte[][] pos = positional ? new byte[256][] : null; //delta coded positions of each keyword, by id
+		int[] posLen = positional ? new int[256] : null, lastPos = positional ? new int[256] : null;
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		try(FileChannel in = FileChannel.open(Paths.get(docFile), StandardOpenOption.READ))
 		{
-				String word = sc.next();			
-				word = getKeyWord(word);
-				if(word!=null) //word is a keyword
+			KeywordTokenizer tokenizer = new KeywordTokenizer(in, noiseTable);
+			int id;
+			while((id = tokenizer.next(terms)) != -1)   // abc text tomorrow the tomorrow abc
+			{
+				if(id == freqs.length)
 				{
-					//check if word is in hashmap
-					//if yes, get word's freq and increment
-					if(kws.containsKey(word))
-					{
-						kws.get(word).frequency++;
-					}
-					//if no, create occ obj with freq=1 and add to hashmap
-					else
+					freqs = Arrays.copyOf(freqs, id*2);
+					if(positional)
 					{
-						Occurrence O = new Occurrence(docFile, 1);
-						kws.put(word, O);
+						pos = Arrays.copyOf(pos, id*2);
+						posLen = Arrays.copyOf(posLen, id*2);
+						lastPos = Arrays.copyOf(lastPos, id*2);
 					}
 				}
-		    
-						
+				freqs[id]++;
+				if(positional)
+				{
+					int p = tokenizer.position();
+					if(pos[id] == null)
+						pos[id] = new byte[8];
+					else if(posLen[id]+5 > pos[id].length)
+						pos[id] = Arrays.copyOf(pos[id], pos[id].length*2);
+					posLen[id] = putVarint(pos[id], posLen[id], p - lastPos[id]);
+					lastPos[id] = p;
+				}
+			}
+			if(m != null)
+				m.tokenized(tokenizer.words(), tokenizer.noiseWords(), System.nanoTime() - start);
+		}
+		catch(NoSuchFileException e)
+		{
+			throw new FileNotFoundException(docFile);
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException("could not read " + docFile, e);
+		}
+		
+		HashMap<String, Occurrence> kws = new HashMap<String,Occurrence>(terms.size()*2+1,2.0f);
+		for(int id=0; id<terms.size(); id++)
+		{
+			Occurrence occ = new Occurrence(docFile, freqs[id]);
+			if(positional)
+				occ.positions = Arrays.copyOf(pos[id], posLen[id]);
+			kws.put(terms.term(id), occ);
 		}
 		return kws;
 	}
 	
+	/**
+	 * Writes a non-negative int as a varint, 7 bits per byte, low order group first.
+	 * 
+	 * @param b Buffer, with room for 5 bytes at off
+	 * @param off Offset to write at
+	 * @param v Value
+	 * @return Offset just past the varint
+	 */
+	private static int putVarint(byte[] b, int off, int v) {
+		while ((v & ~0x7f) != 0) {
+			b[off++] = (byte)((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		b[off++] = (byte)v;
+		return off;
+	}
+	
 	/**
 	 * Merges the keywords for a single document into the master keywordsIndex
 	 * hash table. For each keyword, its Occurrence in the current document
 	 * must be inserted in the correct place (according to descending order of
-	 * frequency) in the same keyword's Occurrence list in the master hash table. 
-	 * This is done by calling the insertLastOccurrence method.
+	 * frequency) in the same keyword's posting list in the master hash table. 
+	 * This is done by calling the insertLastOccurrence method. The document is
+	 * given an id in the documents table the first time it is merged.
 	 * 
 	 * @param kws Keywords hash table for a document
 	 */
 	public void mergeKeyWords(HashMap<String,Occurrence> kws) {
 		// COMPLETE THIS METHOD
-		Iterator it = kws.entrySet().iterator();
-		ArrayList<Occurrence> occs; 
+		checkWritable();
+		if(kws.isEmpty())
+			return;
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		if(concurrent)
+		{
+			int created;
+			synchronized(writeLock)
+			{
+				created = publishKeyWords(kws);
+			}
+			if(m != null)
+			{
+				m.merged(kws.size(), created, System.nanoTime() - start);
+				m.indexed(1);
+			}
+			return;
+		}
+		int created = 0;
+		Iterator<Map.Entry<String,Occurrence>> it = kws.entrySet().iterator();
+		int docId = -1; //all occurrences are in the same document
+		PostingList occs; 
 		ArrayList<Integer> MidPts;		
 				
 		while(it.hasNext())     // <abc; occ1,occ2,occ7,occ4>   // <abc;occnew> <tomorrow;occnewtom>
 		{
-			Map.Entry<String, Occurrence> entry = (Map.Entry<String, Occurrence>) it.next();
-			//if this keyword is present in keywordsIndex
-			if(keywordsIndex.containsKey(entry.getKey()))
-			{
-				occs = keywordsIndex.get(entry.getKey()); //occs = occ1,occ2,occ7,occ4	
-			}
-			//else occs is an emptylist
-			else
+			Map.Entry<String, Occurrence> entry = it.next();
+			if(docId == -1)
+				docId = documents.id(entry.getValue().document);
+			occs = keywordsIndex.get(entry.getKey()); //occs = occ1,occ2,occ7,occ4	
+			//if this keyword is not present in keywordsIndex, occs is an empty list
+			if(occs == null)
 			{
-				occs = new ArrayList<Occurrence>();
+				occs = new PostingList();
+				keywordsIndex.put(entry.getKey(),occs);
+				termsVersion++;
+				created++;
 			}
 			//add to the end of occs it.getValue()		//occs = occ1,occ2,occ7,occ4,occnew
-			occs.add(entry.getValue());
+			occs.add(docId, entry.getValue().frequency, entry.getValue().positions);
 			
 			MidPts = insertLastOccurrence(occs);		//occs = occ1,occnew,occ2,occ7,occ4
-			keywordsIndex.put(entry.getKey(),occs); //overwrites if there is already a key
+			invalidate(entry.getKey());
+		}
+		documents.setLength(docId, length(kws));
+		if(m != null)
+		{
+			m.merged(kws.size(), created, System.nanoTime() - start);
+			m.indexed(1);
+		}
+	}
+	
+	/**
+	 * Merges the keywords for a single document into keywordsIndex in concurrent mode. Every
+	 * posting list that changes is copied, the occurrence is inserted into the copy, and the copy
+	 * then replaces the old list in keywordsIndex, so searches running at the same time only ever
+	 * see complete lists, of documents whose length is already recorded. Must be called holding
+	 * writeLock.
+	 * 
+	 * @param kws Keywords hash table for a document
+	 * @return Number of posting lists created for keywords new to the index
+	 */
+	private int publishKeyWords(HashMap<String,Occurrence> kws) {
+		int docId = documents.id(kws.values().iterator().next().document);
+		// the length goes in first, so that a search that finds the document in any of its
+		// lists never normalizes by a length of 0
+		documents.setLength(docId, length(kws));
+		int created = 0;
+		for (Map.Entry<String,Occurrence> entry : kws.entrySet()) {
+			PostingList old = keywordsIndex.get(entry.getKey());
+			PostingList occs = old == null ? new PostingList(1) : old.copy(old.size()+1);
+			occs.add(docId, entry.getValue().frequency, entry.getValue().positions);
+			insertLastOccurrence(occs);
+			keywordsIndex.put(entry.getKey(), occs);
+			if (old == null) {
+				termsVersion++;
+				created++;
+			}
+			invalidate(entry.getKey());
+		}
+		return created;
+	}
+	
+	/**
+	 * Returns the length of a document, that is the total number of keywords in it.
+	 * 
+	 * @param kws Keywords hash table for the document
+	 * @return Sum of the keyword frequencies
+	 */
+	private static int length(HashMap<String,Occurrence> kws) {
+		int len = 0;
+		for (Occurrence occ : kws.values()) {
+			len += occ.frequency;
+		}
+		return len;
+	}
+	
+	/**
+	 * Appends the occurrences of the keywords of a single document that fall in the given
+	 * stripe of the keyword space to the posting lists of the given index, without sorting
+	 * them. Used when building the index in bulk, where every stripe has its own index table
+	 * (the sequential makeIndex has a single stripe). A keyword that is already in
+	 * keywordsIndex starts out in the table as a copy of its keywordsIndex list.
+	 * 
+	 * @param kws Keywords hash table for a document
+	 * @param docId Id of the document
+	 * @param index Index table to append to
+	 * @param stripe Stripe handled by the caller, 0..numStripes-1
+	 * @param numStripes Total number of stripes
+	 */
+	private void appendKeyWords(HashMap<String,Occurrence> kws, int docId,
+			HashMap<String,PostingList> index, int stripe, int numStripes) {
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		int added = 0, created = 0;
+		for (Map.Entry<String,Occurrence> entry : kws.entrySet()) {
+			String kw = entry.getKey();
+			if ((kw.hashCode() & 0x7fffffff) % numStripes != stripe) {
+				continue;
+			}
+			PostingList occs = index.get(kw);
+			if (occs == null) {
+				PostingList old = keywordsIndex.get(kw);
+				occs = old == null ? new PostingList() : old.copy(old.size()*2);
+				index.put(kw, occs);
+				if (old == null) {
+					created++;
+				}
+			}
+			occs.add(docId, entry.getValue().frequency, entry.getValue().positions);
+			added++;
+		}
+		if (m != null) {
+			m.merged(added, created, System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Sorts the posting lists of an index table built in bulk, and packs them, or trims the
+	 * short ones to size.
+	 * 
+	 * @param index Index table
+	 */
+	private void sortPostings(HashMap<String,PostingList> index) {
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		for (PostingList occs : index.values()) {
+			occs.sortByFrequency();
+			occs.pack();
+		}
+		if (m != null) {
+			m.sorted(System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Puts the posting lists of an index table built in bulk into keywordsIndex, replacing
+	 * any lists already there for the same keywords.
+	 * 
+	 * @param index Index table
+	 */
+	private void publish(HashMap<String,PostingList> index) {
+		keywordsIndex.putAll(index);
+		termsVersion++;
+		for (String kw : index.keySet()) {
+			invalidate(kw);
 		}
 	}
 	
@@ -187,46 +772,15 @@ public class LittleSearchEngine {
 	public String getKeyWord(String word) {
 		// COMPLETE THIS METHOD
 		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE METHOD COMPILE
-		boolean isKeyword = true;
-		
-		word = word.toLowerCase(); 
-		int l = word.length();
-		for(int i = l-1; i>=0; i--)
-		{
-			char ch = word.charAt(i);
-			if(ch=='.'||ch==','||ch=='?'||ch==':'||ch==';'||ch=='!') //removes trailing punctuation of word
-				word = word.substring(0, word.indexOf(ch));
-			else
-				break;
-		}
-		
-		l = word.length();
-		for(int i=0; i<l; i++)
-		{
-			char ch = word.charAt(i);
-			if(!Character.isLetter(ch)) //word consists of non-alphabets
-			{
-				isKeyword = false;
-				break;
-			}
-		}
-			
-		Iterator it = noiseWords.entrySet().iterator();
-		while(it.hasNext())
-		{
-			Map.Entry entry = (Map.Entry) it.next();
-			String key = (String)entry.getKey();
-			if(word.equalsIgnoreCase(key)) //word is a noise word
-			{
-				isKeyword = false;
-				break;
-			}
-		}
+		char[] chars = word.toCharArray();
+		int l = KeywordTokenizer.keywordLength(chars, chars.length); //lower cases, strips trailing punctuation, checks letters
+		if(l <= 0)
+			return null;
 		
-		if(isKeyword)
-			return word;
-		else
+		word = new String(chars, 0, l);
+		if(noiseWords.containsKey(word)) //word is a noise word, noise words are kept in lower case
 			return null;
+		return word;
 	}
 	
 	/**
@@ -234,62 +788,16 @@ public class LittleSearchEngine {
 	 * same list, based on ordering occurrences on descending frequencies. The elements
 	 * 0..n-2 in the list are already in the correct order. Insertion of the last element
 	 * (the one at index n-1) is done by first finding the correct spot using binary search, 
-	 * then inserting at that spot.
+	 * then inserting at that spot. An occurrence is placed after all occurrences with the
+	 * same frequency, so ties stay in the order documents were merged.
 	 * 
-	 * @param occs List of Occurrences
+	 * @param occs Posting list of occurrences
 	 * @return Sequence of mid point indexes in the input list checked by the binary search process,
 	 *         null if the size of the input list is 1. This returned array list is only used to test
 	 *         your code - it is not used elsewhere in the program.
 	 */
-	public ArrayList<Integer> insertLastOccurrence(ArrayList<Occurrence> occs) {
-		// COMPLETE THIS METHOD
-		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE METHOD COMPILE
-		if(occs.size()==1)
-			return null;
-	    
-		ArrayList<Integer> MidPts = new ArrayList<Integer>(occs.size()/2);//stores mid point indexes
-		int high = occs.size()-2; //see instructions. exclude last index.
-		int low = 0; 
-		while(low<=high)
-		{
-			int mid = (low+high)/2;
-			MidPts.add(mid);
-			int f1 = occs.get(occs.size()-1).frequency; //last freq
-			int f2 = occs.get(mid).frequency; //mid freq
-			if(mid==0 && f1>f2)//spot for insertion
-			{
-				Occurrence temp = occs.get(occs.size()-1);
-				occs.remove(occs.size()-1);
-				occs.add(mid, temp);//adds temp to the mid spot and shifts everything to the right one step further
-				break;
-			}
-			if(mid==0 && f1>=occs.get(mid+1).frequency)//spot for insertion
-			{
-				Occurrence temp = occs.get(occs.size()-1);
-				occs.remove(occs.size()-1);
-				occs.add(mid+1, temp);//adds temp to the mid spot and shifts everything to the right one step further
-				break;
-			}
-			if(f1==f2||(f1<occs.get(mid-1).frequency && f1>f2)) //spot for insertion
-			{
-				Occurrence temp = occs.get(occs.size()-1);
-				occs.remove(occs.size()-1);
-				occs.add(mid, temp);//adds temp to the mid spot and shifts everything to the right one step further
-				break;
-			}
-			else if(f1 < f2)
-			{
-				low++;
-			}
-			
-			else if(f1>f2)
-			{
-				high--;
-			}
-			
-		}
-		
-		return MidPts;
+	public ArrayList<Integer> insertLastOccurrence(PostingList occs) {
+		return occs.insertLast();
 	}
 	
 	/**
@@ -309,87 +817,908 @@ public class LittleSearchEngine {
 	public ArrayList<String> top5search(String kw1, String kw2) {
 		// COMPLETE THIS METHOD
 		// THE FOLLOWING LINE HAS BEEN ADDED TO MAKE THE METHOD COMPILE
-		
-		ArrayList<Occurrence> occs1 = new ArrayList<Occurrence>(5); //holds first five occurrences of kw1
-		ArrayList<Occurrence> occs2 = new ArrayList<Occurrence>(5); //holds first five occurrences of kw2
-		int count1 = 0; //number of occurrences in occs1
-		int count2 = 0; //number of occurrences in occs2
-		ArrayList<String> finDocs = new ArrayList<String>(5); //final answer
-		//search for kw1
-		if(keywordsIndex.containsKey(kw1))
-		{
-			occs1 = keywordsIndex.get(kw1);
-			count1 = occs1.size();
+		ArrayList<String> finDocs = search(Query.anyOf(kw1, kw2), 5); //final answer
+		if(finDocs.isEmpty())//neither keywords were found 
+			return null;
+		return finDocs;
+	}
+	
+	/**
+	 * Search result for "kw1 or kw2", ranked on a relevance score instead of raw frequencies.
+	 * See rankedSearch.
+	 * 
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @param scoring Scoring function
+	 * @return List of NAMES of the top 5 documents in which either kw1 or kw2 occurs, highest
+	 *         score first. If there are no matching documents, the result is null.
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2, Scoring scoring) {
+		ArrayList<String> finDocs = rankedSearch(Query.anyOf(kw1, kw2), 5, scoring);
+		return finDocs.isEmpty() ? null : finDocs;
+	}
+	
+	/**
+	 * Searches for the top k documents that match a query. The posting lists of the query's
+	 * ranking keywords are merged with a heap, highest frequency first, with ties going to the
+	 * keyword that comes first in the query, then to the document that was indexed first. Each
+	 * document is taken the first time it comes off the heap, if it passes the query's and/not
+	 * tests, so the merge stops as soon as k documents are found.
+	 * 
+	 * @param q Query
+	 * @param k Maximum number of documents to return
+	 * @return List of NAMES of the top k matching documents, best first. Empty if no documents match.
+	 */
+	public ArrayList<String> search(Query q, int k) {
+		IndexMetrics m = metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		ArrayList<String> finDocs;
+		QueryCache cache = queryCache;
+		if (cache == null) {
+			finDocs = searchIndex(q, k);
+		} else {
+			String key = QueryCache.key(q, k);
+			finDocs = cache.get(key);
+			if (finDocs == null) {
+				long stamp = cache.stamp();
+				finDocs = searchIndex(q, k);
+				cache.put(key, q, finDocs, stamp);
+			}
+			finDocs = new ArrayList<String>(finDocs);
+		}
+		if (m != null) {
+			m.searched(System.nanoTime() - start);
+		}
+		return finDocs;
+	}
+	
+	/**
+	 * Runs a search against the index, bypassing the result cache.
+	 * 
+	 * @param q Query
+	 * @param k Maximum number of documents to return
+	 * @return List of NAMES of the top k matching documents, best first
+	 */
+	private ArrayList<String> searchIndex(Query q, int k) {
+		ArrayList<Hit> hits = searchHits(q, k);
+		ArrayList<String> finDocs = new ArrayList<String>(hits.size());
+		for (Hit h : hits) {
+			finDocs.add(document(h.doc));
+		}
+		return finDocs;
+	}
+	
+	/**
+	 * Runs a search against the index, bypassing the result cache, as described in search.
+	 * 
+	 * @param q Query
+	 * @param k Maximum number of documents to return
+	 * @return Top k matching documents, best first, each with the frequency and query position
+	 *         of the keyword it was taken on
+	 */
+	ArrayList<Hit> searchHits(Query q, int k) {
+		ArrayList<Hit> finDocs = new ArrayList<Hit>(Math.min(Math.max(k, 0), 16));
+		if (k <= 0) {
+			return finDocs;
 		}
 		
-		//search for kw2
-		if(keywordsIndex.containsKey(kw2))
-		{
-			occs2 = keywordsIndex.get(kw2);
-			count2 = occs2.size();
+		// documents that have each and keyword, and each phrase or near pair
+		int numAll = q.allTerms.size();
+		BitSet[] all = new BitSet[numAll + q.proximities.size()];
+		for (int t=0; t < numAll; t++) {
+			all[t] = docSet(q.allTerms.get(t));
+			if (all[t] == null) {
+				return finDocs; // no document has all the and keywords
+			}
+		}
+		for (int p=0; p < q.proximities.size(); p++) {
+			all[numAll+p] = proximityDocs(q.proximities.get(p));
+		}
+		BitSet[] none = new BitSet[q.noneTerms.size()];
+		for (int t=0; t < none.length; t++) {
+			none[t] = docSet(q.noneTerms.get(t));
+			if (none[t] == null) {
+				none[t] = new BitSet();
+			}
+		}
+		// documents that have some or keyword, only needed if documents can also come in
+		// through an and keyword
+		BitSet any = null;
+		if (!q.anyTerms.isEmpty() && all.length > 0) {
+			any = new BitSet();
+			for (String kw : q.anyTerms) {
+				BitSet docs = docSet(kw);
+				if (docs != null) {
+					any.or(docs);
+				}
+			}
 		}
 		
-		if(count1==0 && count2==0)//neither keywords were found 
-			return null;
+		PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(Math.max(q.terms.size(), 1));
+		for (int t=0; t < q.terms.size(); t++) {
+			Cursor c = cursor(q.terms.get(t), t);
+			if (c != null) {
+				heap.add(c);
+			}
+		}
 		
-		if(count1==0)//only kw2 was found
-		{
-			for(int i=0; i<occs2.size(); i++)
-			{
-				finDocs.add(occs2.get(i).document);
+		BitSet del = deleted; //removed documents are never taken
+		BitSet seen = new BitSet();
+		while (!heap.isEmpty() && finDocs.size() < k) {
+			Cursor c = heap.poll();
+			int doc = c.docs[c.pos];
+			if (!seen.get(doc)) {
+				seen.set(doc);
+				if (!del.get(doc) && matches(doc, any, all, none)) {
+					finDocs.add(new Hit(doc, c.freqs[c.pos], c.term, 0));
+				}
+			}
+			if (c.next()) {
+				heap.add(c);
 			}
+		}
+		return finDocs;
+	}
+	
+	/**
+	 * Searches for the top k documents that match a query, ranked on a relevance score instead
+	 * of raw frequencies. Each document that has some of the query's or/and keywords is scored by
+	 * summing the scores of those keywords in it, where a keyword scores higher the more often it
+	 * is in the document, the fewer documents have it, and the shorter the document is. Documents
+	 * that fail the query's and/not tests are left out. The best k are kept in a bounded min-heap.
+	 * Length norms are kept up to date by the documents table. Lists held in memory are
+	 * evaluated with Block-Max WAND, which skips the blocks of postings that can not make it into
+	 * the top k; postings read in place from an index file are scored in full. Results are not
+	 * cached by the result cache.
+	 * 
+	 * @param q Query
+	 * @param k Maximum number of documents to return
+	 * @param scoring Scoring function
+	 * @return List of NAMES of the top k matching documents, highest score first, with ties going
+	 *         to the document that was indexed first. Empty if no documents match.
+	 */
+	public ArrayList<String> rankedSearch(Query q, int k, Scoring scoring) {
+		IndexMetrics m = metrics;
+		if (m == null) {
+			return rank(q, k, scoring);
+		}
+		long start = System.nanoTime();
+		ArrayList<String> finDocs = rank(q, k, scoring);
+		m.searched(System.nanoTime() - start);
+		return finDocs;
+	}
+	
+	/**
+	 * Runs a ranked search against the index, as described in rankedSearch.
+	 * 
+	 * @param q Query
+	 * @param k Maximum number of documents to return
+	 * @param scoring Scoring function
+	 * @return List of NAMES of the top k matching documents, highest score first
+	 */
+	private ArrayList<String> rank(Query q, int k, Scoring scoring) {
+		ArrayList<Hit> hits = rankedHits(q, k, scoring, ranker(), null);
+		ArrayList<String> finDocs = new ArrayList<String>(hits.size());
+		for (Hit h : hits) {
+			finDocs.add(document(h.doc));
+		}
+		return finDocs;
+	}
+	
+	/**
+	 * Runs a ranked search against the index with the given ranker and keyword weights.
+	 * 
+	 * @param q Query
+	 * @param k Maximum number of documents to return
+	 * @param scoring Scoring function
+	 * @param r Ranker
+	 * @param dfs Number of documents that have each of the query's ranking keywords, null to
+	 *        take them from the posting lists
+	 * @return Top k matching documents, highest score first, each with its score
+	 */
+	ArrayList<Hit> rankedHits(Query q, int k, Scoring scoring, Ranker r, int[] dfs) {
+		ArrayList<Hit> finDocs = new ArrayList<Hit>(Math.min(Math.max(k, 0), 16));
+		if (k <= 0) {
 			return finDocs;
 		}
 		
-		if(count2==0)//only kw1 was found 
-		{
-			for(int i=0; i<occs1.size(); i++)
-			{
-				finDocs.add(occs1.get(i).document);
+		// documents that have each and keyword, and each phrase or near pair
+		int numAll = q.allTerms.size();
+		BitSet[] all = new BitSet[numAll + q.proximities.size()];
+		for (int t=0; t < numAll; t++) {
+			all[t] = docSet(q.allTerms.get(t));
+			if (all[t] == null) {
+				return finDocs;
 			}
-			return finDocs;
 		}
+		for (int p=0; p < q.proximities.size(); p++) {
+			all[numAll+p] = proximityDocs(q.proximities.get(p));
+		}
+		BitSet[] none = new BitSet[q.noneTerms.size()];
+		for (int t=0; t < none.length; t++) {
+			none[t] = docSet(q.noneTerms.get(t));
+			if (none[t] == null) {
+				none[t] = new BitSet();
+			}
+		}
+		BitSet del = deleted;
+		IntPredicate accept = doc -> !del.get(doc) && matches(doc, null, all, none);
 		
-		//both keywords were found
-		int i=0,j=0,finCount=0; //counter to go through occs1, occs2, and finDocs resply
-		int f1=0, f2=0; //frequency of a keyword in occs1 and occs2 reply 
-		while ((i<count1 || j<count2) && finCount <5) 
-		{		
-			if (i<count1)
-				f1=occs1.get(i).frequency;
-			else
-				f1=0;
-			
-			if(j<count2)
-				f2=occs2.get(j).frequency;
-			else 
-				f2=0;
-			
-			if(f1>=f2){
-				if(!finDocs.contains(occs1.get(i).document))
-				{
-					//add f1's occ.doc to finDocs
-					finDocs.add(occs1.get(i).document);
+		// the same keyword twice in a query counts twice, as it does in the score of the query
+		int n = q.terms.size();
+		boolean localDfs = dfs == null;
+		if (localDfs) {
+			dfs = new int[n];
+		}
+		IndexFile file = indexFile;
+		int[] top;
+		double[] scores = new double[Math.min(k, file == null ? documents.size() : file.docCount())];
+		if (file == null) {
+			// lists in memory keep their blocks between searches
+			DocBlocks[] blocks = new DocBlocks[n];
+			for (int t=0; t < n; t++) {
+				PostingList occs = postings(q.terms.get(t));
+				if (occs != null) {
+					blocks[t] = occs.docBlocks(r.lengths);
+					if (localDfs) {
+						dfs[t] = occs.size();
+					}
 				}
-				//increment i
-				i++;
 			}
-			else
-			{
-				if(!finDocs.contains(occs2.get(j).document))
-				{
-					//add f2's occ.doc to finDocs
-					finDocs.add(occs2.get(j).document);
+			top = BlockMaxWand.topK(blocks, dfs, r, scoring, k, accept, scores);
+		} else {
+			IndexFile.Postings[] lists = new IndexFile.Postings[n];
+			for (int t=0; t < n; t++) {
+				lists[t] = file.scan(q.terms.get(t));
+				if (localDfs && lists[t] != null) {
+					dfs[t] = lists[t].size();
 				}
-				
-			//increment j
-				j++;
 			}
-			finCount++;
+			top = scoreAll(lists, dfs, r, scoring, k, accept, scores);
+		}
+		for (int i=0; i < top.length; i++) {
+			finDocs.add(new Hit(top[i], 0, 0, scores[i]));
 		}
 		return finDocs;
 	}
 	
+	/**
+	 * Finds the k best documents for a ranked query by scoring every posting of the query's
+	 * keywords. Used for postings read in place from an index file, which have no blocks to
+	 * skip. Scores are summed in a hash table of the documents that have some keyword, so
+	 * memory grows with the number of postings read, not with the number of documents, and
+	 * the best k are kept in a bounded min-heap.
+	 * 
+	 * @param lists Postings of the query's keywords, null for keywords that are not indexed
+	 * @param dfs Number of documents that have each keyword
+	 * @param r Ranker
+	 * @param scoring Scoring function
+	 * @param k Number of documents to find
+	 * @param accept Tells whether a document may be in the results
+	 * @param topScores Filled with the scores of the best documents
+	 * @return Ids of the best documents, highest score first, ties to the lower id
+	 */
+	private static int[] scoreAll(IndexFile.Postings[] lists, int[] dfs, Ranker r,
+			Scoring scoring, int k, IntPredicate accept, double[] topScores) {
+		long total = 0;
+		for (IndexFile.Postings occs : lists) {
+			if (occs != null) {
+				total += occs.size();
+			}
+		}
+		int cap = 2;
+		while (cap < 2*total) {
+			cap <<= 1;
+		}
+		// open addressed on document ids, -1 marks a free slot
+		final int[] docs = new int[cap];
+		final double[] scores = new double[cap];
+		Arrays.fill(docs, -1);
+		for (int t=0; t < lists.length; t++) {
+			IndexFile.Postings occs = lists[t];
+			if (occs == null) {
+				continue;
+			}
+			double idf = r.idf(scoring, dfs[t]);
+			while (occs.next()) {
+				int doc = occs.doc();
+				int i = doc & (cap-1);
+				while (docs[i] != -1 && docs[i] != doc) {
+					i = (i+1) & (cap-1);
+				}
+				docs[i] = doc;
+				scores[i] += r.score(scoring, idf, doc, occs.freq());
+			}
+		}
+		
+		// min-heap of the best k so far, worst on top, by slot in the table
+		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(k+1, (a, b) -> {
+			int c = Double.compare(scores[a], scores[b]);
+			return c != 0 ? c : docs[b] - docs[a];
+		});
+		for (int i=0; i < cap; i++) {
+			if (docs[i] == -1 || !accept.test(docs[i])) {
+				continue;
+			}
+			if (heap.size() < k) {
+				heap.add(i);
+			} else if (heap.comparator().compare(i, heap.peek()) > 0) {
+				heap.poll();
+				heap.add(i);
+			}
+		}
+		int[] top = new int[heap.size()];
+		for (int i=top.length-1; i >= 0; i--) {
+			int slot = heap.poll();
+			top[i] = docs[slot];
+			topScores[i] = scores[slot];
+		}
+		return top;
+	}
+	
+	/**
+	 * Returns the ranker for the current documents, building a new one if documents have
+	 * changed since the last one was built.
+	 * 
+	 * @return Ranker
+	 */
+	private Ranker ranker() {
+		IndexFile file = indexFile;
+		Ranker r = ranker;
+		if (file != null) {
+			if (r == null || r.file != file) {
+				// the file never changes, so its lengths and norms are read once
+				int[] lengths = new int[file.docCount()];
+				float[] norms = new float[lengths.length];
+				for (int d=0; d < lengths.length; d++) {
+					lengths[d] = file.length(d);
+					norms[d] = Ranker.tfidfNorm(lengths[d]);
+				}
+				r = new Ranker(0, file, file.liveCount(), file.totalLength(), d -> lengths[d],
+					d -> norms[d]);
+				ranker = r;
+			}
+			return r;
+		}
+		DocTable docs = documents;
+		long version = docs.version();
+		return ranker(version, docs.liveCount(), docs.totalLength());
+	}
+	
+	/**
+	 * Returns a ranker for the documents held in memory, with the given collection statistics
+	 * in place of their own. ShardedSearchEngine uses this to score the documents of a shard
+	 * against the whole collection. The ranker is kept until the documents or the statistics
+	 * change.
+	 * 
+	 * @param version Version of the documents table, read before the statistics
+	 * @param liveCount Number of documents in the collection, not counting removed ones
+	 * @param totalLength Sum of the lengths of those documents
+	 * @return Ranker
+	 */
+	Ranker ranker(long version, int liveCount, long totalLength) {
+		DocTable docs = documents;
+		Ranker r = ranker;
+		if (r == null || r.file != null || r.version != version || r.liveCount != liveCount
+				|| r.totalLength != totalLength) {
+			r = new Ranker(version, null, liveCount, totalLength, docs::length, docs::norm);
+			ranker = r;
+		}
+		return r;
+	}
+	
+	/**
+	 * Returns the keywords in the index that start with a prefix, such as all keywords
+	 * for "cat*". The prefix is lower cased.
+	 * 
+	 * @param prefix Prefix
+	 * @return Matching keywords, in sorted order
+	 */
+	public ArrayList<String> prefixKeywords(String prefix) {
+		return new ArrayList<String>(termDictionary().prefix(prefix.toLowerCase()));
+	}
+	
+	/**
+	 * Returns the keywords in the index that match a wildcard pattern, in which '*' stands for
+	 * any number of characters and '?' for exactly one. The pattern is lower cased.
+	 * 
+	 * @param pattern Pattern, such as "c?t*"
+	 * @return Matching keywords, in sorted order
+	 */
+	public ArrayList<String> wildcardKeywords(String pattern) {
+		return new ArrayList<String>(termDictionary().wildcard(pattern.toLowerCase()));
+	}
+	
+	/**
+	 * Returns the keywords in the index that are at most one edit (an inserted, deleted or
+	 * replaced character) away from a word. The word is lower cased.
+	 * 
+	 * @param word Word
+	 * @return Matching keywords, in sorted order, including the word itself if it is a keyword
+	 */
+	public ArrayList<String> fuzzyKeywords(String word) {
+		return new ArrayList<String>(termDictionary().fuzzy(word.toLowerCase()));
+	}
+	
+	/**
+	 * Returns the dictionary of all keywords, rebuilding it if keywords have been added or
+	 * dropped since it was built. Searches on the index are not held up by a rebuild.
+	 * 
+	 * @return Keyword dictionary
+	 */
+	TermDictionary termDictionary() {
+		TermDictionary dict = dictionary;
+		if (dict != null && dict.version == termsVersion) {
+			return dict;
+		}
+		synchronized (dictionaryLock) {
+			dict = dictionary;
+			long version = termsVersion;
+			if (dict == null || dict.version != version) {
+				ArrayList<String> kws;
+				IndexFile file = indexFile;
+				if (file != null) {
+					kws = new ArrayList<String>(file.termCount());
+					for (int t=0; t < file.termCount(); t++) {
+						kws.add(file.term(t));
+					}
+				} else {
+					kws = new ArrayList<String>(keywordsIndex.keySet());
+				}
+				dict = new TermDictionary(kws);
+				dict.version = version;
+				dictionary = dict;
+			}
+			return dict;
+		}
+	}
+	
+	/**
+	 * Turns on caching of search results. Cached results are dropped exactly when the
+	 * posting list of one of their keywords changes, or when a document in them is removed.
+	 * 
+	 * @param maxEntries Maximum number of cached results; the least recently used result
+	 *        is evicted when the cache is full
+	 */
+	public void enableQueryCache(int maxEntries) {
+		queryCache = new QueryCache(maxEntries);
+	}
+	
+	/**
+	 * Turns off caching of search results.
+	 */
+	public void disableQueryCache() {
+		queryCache = null;
+	}
+	
+	/**
+	 * Returns the number of searches answered from the result cache.
+	 * 
+	 * @return Number of cache hits, 0 if caching is off
+	 */
+	public long queryCacheHits() {
+		QueryCache cache = queryCache;
+		return cache == null ? 0 : cache.hits();
+	}
+	
+	/**
+	 * Returns the number of searches that were not in the result cache.
+	 * 
+	 * @return Number of cache misses, 0 if caching is off
+	 */
+	public long queryCacheMisses() {
+		QueryCache cache = queryCache;
+		return cache == null ? 0 : cache.misses();
+	}
+	
+	/**
+	 * Returns the number of results evicted from the result cache to make room for others.
+	 * 
+	 * @return Number of cache evictions, 0 if caching is off
+	 */
+	public long queryCacheEvictions() {
+		QueryCache cache = queryCache;
+		return cache == null ? 0 : cache.evictions();
+	}
+	
+	/**
+	 * Turns on indexing and search metrics. Until then the engine keeps no metrics, and does
+	 * not read the clock. Turning metrics on when they are already on keeps the current ones.
+	 * 
+	 * @return Metrics of this engine
+	 */
+	public IndexMetrics enableMetrics() {
+		synchronized (writeLock) {
+			if (metrics == null) {
+				metrics = new IndexMetrics();
+			}
+			return metrics;
+		}
+	}
+	
+	/**
+	 * Turns off indexing and search metrics, and unregisters them from JMX if they were
+	 * registered.
+	 */
+	public void disableMetrics() {
+		IndexMetrics m;
+		synchronized (writeLock) {
+			m = metrics;
+			metrics = null;
+		}
+		if (m != null) {
+			m.unregister();
+		}
+	}
+	
+	/**
+	 * Returns the indexing and search metrics of this engine.
+	 * 
+	 * @return Metrics, null if they are off
+	 */
+	public IndexMetrics metrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Drops cached results that use a keyword, after its posting list has changed.
+	 * 
+	 * @param kw Keyword
+	 */
+	private void invalidate(String kw) {
+		QueryCache cache = queryCache;
+		if (cache != null) {
+			cache.invalidate(kw);
+		}
+	}
+	
+	/**
+	 * Tells whether a document passes the and/not tests of a query.
+	 * 
+	 * @param doc Document id
+	 * @param any Documents that have some or keyword, null if not to be tested
+	 * @param all Documents that have each and keyword
+	 * @param none Documents that have each not keyword
+	 * @return True if the document has some or keyword, all and keywords and no not keywords
+	 */
+	static boolean matches(int doc, BitSet any, BitSet[] all, BitSet[] none) {
+		if (any != null && !any.get(doc)) {
+			return false;
+		}
+		for (BitSet docs : all) {
+			if (!docs.get(doc)) {
+				return false;
+			}
+		}
+		for (BitSet docs : none) {
+			if (docs.get(doc)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the set of documents that satisfy a phrase or near constraint. Only documents
+	 * that have all of the constraint's keywords are looked at, and the positions of the
+	 * keywords in each are intersected in a single merge-like pass, so the cost is linear in
+	 * the sizes of the posting lists and position lists involved.
+	 * 
+	 * @param p Phrase or near constraint
+	 * @return Ids of the documents that satisfy it
+	 * @throws IllegalStateException If the index does not record positions
+	 */
+	private BitSet proximityDocs(Query.Proximity p) {
+		BitSet docs = new BitSet();
+		PostingList[] lists = new PostingList[p.kws.length];
+		int shortest = 0;
+		for (int i=0; i < lists.length; i++) {
+			lists[i] = postings(p.kws[i]);
+			if (lists[i] == null) {
+				return docs;
+			}
+			if (lists[i].positions == null) {
+				throw new IllegalStateException("index does not record keyword positions");
+			}
+			if (lists[i].size() < lists[shortest].size()) {
+				shortest = i;
+			}
+		}
+		
+		// index of each document's posting in every list
+		int docCount = indexFile != null ? indexFile.docCount() : documents.size();
+		int[][] at = new int[lists.length][];
+		for (int i=0; i < lists.length; i++) {
+			if (i == shortest) {
+				continue;
+			}
+			at[i] = new int[docCount];
+			Arrays.fill(at[i], -1);
+			for (int j=0; j < lists[i].size(); j++) {
+				at[i][lists[i].doc(j)] = j;
+			}
+		}
+		
+		int[][] pos = new int[lists.length][];
+		postings:
+		for (int j=0; j < lists[shortest].size(); j++) {
+			int doc = lists[shortest].doc(j);
+			for (int i=0; i < lists.length; i++) {
+				int k = i == shortest ? j : at[i][doc];
+				if (k == -1) {
+					continue postings;
+				}
+				pos[i] = lists[i].positions(k);
+			}
+			if (p.phrase ? hasPhrase(pos) : within(pos[0], pos[1], p.distance)) {
+				docs.set(doc);
+			}
+		}
+		return docs;
+	}
+	
+	/**
+	 * Tells whether keywords follow each other in a document.
+	 * 
+	 * @param pos Positions of each keyword of the phrase, in phrase order, each ascending
+	 * @return True if, for some start, keyword i is at position start+i for every i
+	 */
+	static boolean hasPhrase(int[][] pos) {
+		// starts that still work, narrowed down one keyword at a time
+		int[] starts = pos[0];
+		int n = starts.length;
+		for (int i=1; i < pos.length && n > 0; i++) {
+			int[] next = new int[n];
+			int m = 0, a = 0, b = 0;
+			while (a < n && b < pos[i].length) {
+				int want = starts[a] + i;
+				if (pos[i][b] < want) {
+					b++;
+				} else if (pos[i][b] > want) {
+					a++;
+				} else {
+					next[m++] = starts[a];
+					a++;
+					b++;
+				}
+			}
+			starts = next;
+			n = m;
+		}
+		return n > 0;
+	}
+	
+	/**
+	 * Tells whether two keywords are within a distance of each other in a document.
+	 * 
+	 * @param pos1 Positions of the first keyword, ascending
+	 * @param pos2 Positions of the second keyword, ascending
+	 * @param distance Largest distance
+	 * @return True if some positions of the two are at most distance apart, and not the same
+	 */
+	static boolean within(int[] pos1, int[] pos2, int distance) {
+		int a = 0, b = 0;
+		while (a < pos1.length && b < pos2.length) {
+			int d = Math.abs(pos1[a] - pos2[b]);
+			if (d != 0 && d <= distance) { // 0 only if both are the same keyword, at the same word
+				return true;
+			}
+			if (pos1[a] < pos2[b]) {
+				a++;
+			} else {
+				b++;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the set of documents that have a keyword, read in place from the index file if
+	 * one has been opened.
+	 * 
+	 * @param kw Keyword
+	 * @return Ids of the documents that have the keyword, null if it is not indexed
+	 */
+	private BitSet docSet(String kw) {
+		IndexFile file = indexFile;
+		if (file != null) {
+			IndexFile.Postings occs = file.scan(kw);
+			return occs == null ? null : docSet(occs);
+		}
+		PostingList occs = postings(kw);
+		return occs == null ? null : docSet(occs);
+	}
+	
+	/**
+	 * Returns the set of documents in postings read from an index file.
+	 * 
+	 * @param occs Postings, not read yet
+	 * @return Document ids
+	 */
+	static BitSet docSet(IndexFile.Postings occs) {
+		BitSet docs = new BitSet();
+		while (occs.next()) {
+			docs.set(occs.doc());
+		}
+		return docs;
+	}
+	
+	/**
+	 * Returns a cursor at the first posting of a keyword for the heap merge in search, read in
+	 * place from the index file if one has been opened.
+	 * 
+	 * @param kw Keyword
+	 * @param term Position of the keyword in the query
+	 * @return Cursor, null if the keyword has no postings
+	 */
+	private Cursor cursor(String kw, int term) {
+		IndexFile file = indexFile;
+		if (file != null) {
+			IndexFile.Postings occs = file.scan(kw);
+			return occs == null || occs.size() == 0 ? null : new Cursor(occs, term);
+		}
+		PostingList occs = postings(kw);
+		return occs == null || occs.size() == 0 ? null : new Cursor(occs, term);
+	}
+	
+	/**
+	 * Returns the set of documents in a posting list.
+	 * 
+	 * @param occs Posting list
+	 * @return Ids of the documents in the list
+	 */
+	static BitSet docSet(PostingList occs) {
+		BitSet docs = new BitSet();
+		int[] d = new int[PackedPostings.BLOCK];
+		for (int b=0; b < occs.blockCount(); b++) {
+			int n = occs.decodeBlock(b, d, null);
+			for (int i=0; i < n; i++) {
+				docs.set(d[i]);
+			}
+		}
+		return docs;
+	}
+	
+	/**
+	 * Position in the posting list of one of the keywords of a query, ordered for the heap
+	 * merge in search: highest frequency first, then earliest keyword in the query. The list
+	 * is read a block at a time, so packed lists are decoded a block at a time too.
+	 */
+	private static class Cursor implements Comparable<Cursor> {
+		PostingList occs;
+		
+		/**
+		 * Postings read in place from an index file, null for a list in memory
+		 */
+		IndexFile.Postings in;
+		
+		int term;
+		
+		/**
+		 * Postings of the current block, and the position in them.
+		 */
+		int[] docs = new int[PackedPostings.BLOCK], freqs = new int[PackedPostings.BLOCK];
+		int block, count, pos;
+		
+		Cursor(PostingList occs, int term) {
+			this.occs = occs;
+			this.term = term;
+			count = occs.decodeBlock(0, docs, freqs);
+		}
+		
+		Cursor(IndexFile.Postings in, int term) {
+			this.in = in;
+			this.term = term;
+			count = in.read(docs, freqs);
+		}
+		
+		/**
+		 * Moves to the next posting.
+		 * 
+		 * @return False if there are no more postings
+		 */
+		boolean next() {
+			if (++pos < count) {
+				return true;
+			}
+			if (in != null) {
+				count = in.read(docs, freqs);
+				pos = 0;
+				return count > 0;
+			}
+			if (++block == occs.blockCount()) {
+				return false;
+			}
+			count = occs.decodeBlock(block, docs, freqs);
+			pos = 0;
+			return true;
+		}
+		
+		public int compareTo(Cursor o) {
+			int f1 = freqs[pos], f2 = o.freqs[o.pos];
+			if (f1 != f2) {
+				return f1 > f2 ? -1 : 1;
+			}
+			return term - o.term;
+		}
+	}
+	
+	/**
+	 * Returns the posting list of a keyword, from the index file if one has been opened,
+	 * otherwise from the keywordsIndex hash table.
+	 * 
+	 * @param kw Keyword
+	 * @return Postings of kw in descending order of frequencies, null if kw is not indexed
+	 */
+	PostingList postings(String kw) {
+		if (indexFile != null) {
+			return indexFile.postings(kw);
+		}
+		return keywordsIndex.get(kw);
+	}
+	
+	/**
+	 * Returns the name of a document, from the index file if one has been opened,
+	 * otherwise from the documents table.
+	 * 
+	 * @param docId Document id
+	 * @return Document name
+	 */
+	String document(int docId) {
+		if (indexFile != null) {
+			return indexFile.document(docId);
+		}
+		return documents.name(docId);
+	}
+	
+	/**
+	 * Writes the keywords index to a binary index file, which can later be opened with
+	 * openIndex instead of indexing all documents again.
+	 * 
+	 * @param file Name of the index file
+	 * @throws IOException If the file can not be written, or would be larger than 2GB
+	 */
+	public void saveIndex(String file)
+	throws IOException {
+		checkWritable();
+		synchronized (writeLock) {
+			compact();
+			IndexFile.write(keywordsIndex, documents, file);
+		}
+	}
+	
+	/**
+	 * Opens an index file written by saveIndex, and serves all searches from it. The file is
+	 * memory mapped and searched in place, so opening it takes no time and the keywords do not
+	 * take up heap space. The keywordsIndex hash table and documents table are emptied, removed
+	 * documents are forgotten, and the index can no longer be changed.
+	 * 
+	 * @param file Name of the index file
+	 * @throws IOException If the file can not be read, or is not an index file
+	 */
+	public void openIndex(String file)
+	throws IOException {
+		indexFile = IndexFile.open(file);
+		keywordsIndex.clear();
+		termsVersion++;
+		documents = new DocTable();
+		deleted = new BitSet();
+		pendingDeletes = 0;
+		ranker = null;
+		if (queryCache != null) {
+			queryCache.clear();
+		}
+	}
+	
+	/**
+	 * Throws an IllegalStateException if the index is served from an index file.
+	 */
+	private void checkWritable() {
+		if (indexFile != null) {
+			throw new IllegalStateException("index is opened from a file, and is read only");
+		}
+	}
+	
 	//my driver
 	public static void main(String[] args)throws IOException
 	{
@@ -0,0 +1,220 @@
+package search;
+
+import java.util.Arrays;
+
+/**
+ * The postings of a finished posting list, packed in blocks of BLOCK postings with
+ * frame-of-reference coding: in each block, document ids are stored as their differences
+ * from the smallest id in the block, and frequencies as their differences from the smallest
+ * frequency, each in as many bits as the largest difference needs. Since a list is in
+ * descending order of frequencies, a block mostly holds postings of a single frequency, which
+ * then take no bits at all, and document ids take about as many bits as it takes to count the
+ * documents. The packed bits of all blocks are in one array of longs.
+ *
+ * Any posting can be read on its own, but whole blocks are quicker to decode with
+ * decodeBlock, whose loop has no branches and no dependencies from one posting to the next.
+ * Packed postings never change.
+ *
+ */
+class PackedPostings {
+
+	/**
+	 * Number of postings in a block.
+	 */
+	static final int BLOCK = 128;
+
+	private static final int SHIFT = Integer.numberOfTrailingZeros(BLOCK);
+
+	/**
+	 * Number of postings.
+	 */
+	private final int size;
+
+	/**
+	 * Packed bits, with one long to spare at the end, so that a value can always be read
+	 * from two consecutive longs.
+	 */
+	private final long[] words;
+
+	/**
+	 * Per block: the index in words where its bits start, the smallest document id and
+	 * frequency, and the number of bits of each document id and frequency. Frequencies are
+	 * packed after all document ids of the block.
+	 */
+	private final int[] starts, docBases, freqBases;
+	private final byte[] docBits, freqBits;
+
+	/**
+	 * Packs postings.
+	 *
+	 * @param docs Document ids
+	 * @param freqs Frequencies, parallel to docs
+	 * @param size Number of postings
+	 */
+	PackedPostings(int[] docs, int[] freqs, int size) {
+		this.size = size;
+		int blocks = (size + BLOCK-1) >>> SHIFT;
+		starts = new int[blocks];
+		docBases = new int[blocks];
+		freqBases = new int[blocks];
+		docBits = new byte[blocks];
+		freqBits = new byte[blocks];
+		int wordCount = 0;
+		for (int b=0; b < blocks; b++) {
+			int from = b << SHIFT, to = Math.min(from+BLOCK, size);
+			int minDoc = Integer.MAX_VALUE, maxDoc = 0, minFreq = Integer.MAX_VALUE, maxFreq = 0;
+			for (int i=from; i < to; i++) {
+				minDoc = Math.min(minDoc, docs[i]);
+				maxDoc = Math.max(maxDoc, docs[i]);
+				minFreq = Math.min(minFreq, freqs[i]);
+				maxFreq = Math.max(maxFreq, freqs[i]);
+			}
+			starts[b] = wordCount;
+			docBases[b] = minDoc;
+			freqBases[b] = minFreq;
+			docBits[b] = (byte)bits(maxDoc - minDoc);
+			freqBits[b] = (byte)bits(maxFreq - minFreq);
+			wordCount += (int)(((long)(to-from) * (docBits[b] + freqBits[b]) + 63) >>> 6);
+		}
+		words = new long[wordCount+1];
+		for (int b=0; b < blocks; b++) {
+			int from = b << SHIFT, to = Math.min(from+BLOCK, size);
+			long bit = (long)starts[b] << 6;
+			bit = pack(docs, from, to, docBases[b], docBits[b], bit);
+			pack(freqs, from, to, freqBases[b], freqBits[b], bit);
+		}
+	}
+
+	/**
+	 * Returns the number of bits needed to store a non-negative value.
+	 */
+	private static int bits(int v) {
+		return 32 - Integer.numberOfLeadingZeros(v);
+	}
+
+	/**
+	 * Packs values from-to-1, less base, width bits each, starting at the given bit.
+	 *
+	 * @return Bit just past the packed values
+	 */
+	private long pack(int[] values, int from, int to, int base, int width, long bit) {
+		if (width == 0) {
+			return bit;
+		}
+		for (int i=from; i < to; i++, bit += width) {
+			long v = (values[i] - base) & 0xffffffffL;
+			int w = (int)(bit >>> 6), s = (int)bit & 63;
+			words[w] |= v << s;
+			if (s + width > 64) {
+				words[w+1] |= v >>> (64 - s);
+			}
+		}
+		return bit;
+	}
+
+	/**
+	 * Reads the value of the given width, at least 1, at the given bit. The second long is
+	 * shifted in two steps, so that a value that starts at bit 0 of a long gets nothing from
+	 * the next one, without a branch.
+	 */
+	private long read(long bit, long mask) {
+		int w = (int)(bit >>> 6), s = (int)bit & 63;
+		return ((words[w] >>> s) | ((words[w+1] << 1) << (63 - s))) & mask;
+	}
+
+	/**
+	 * Returns the number of postings.
+	 *
+	 * @return Number of postings
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of blocks.
+	 *
+	 * @return Number of blocks
+	 */
+	int blocks() {
+		return starts.length;
+	}
+
+	/**
+	 * Returns the document id of a posting.
+	 *
+	 * @param i Index of the posting
+	 * @return Document id
+	 */
+	int doc(int i) {
+		int b = i >>> SHIFT;
+		int width = docBits[b];
+		if (width == 0) {
+			return docBases[b];
+		}
+		long bit = ((long)starts[b] << 6) + (long)(i & (BLOCK-1)) * width;
+		return docBases[b] + (int)read(bit, (1L << width) - 1);
+	}
+
+	/**
+	 * Returns the frequency of a posting.
+	 *
+	 * @param i Index of the posting
+	 * @return Frequency
+	 */
+	int freq(int i) {
+		int b = i >>> SHIFT;
+		int n = Math.min(BLOCK, size - (b << SHIFT));
+		int width = freqBits[b];
+		if (width == 0) {
+			return freqBases[b];
+		}
+		long bit = ((long)starts[b] << 6) + (long)n * docBits[b] + (long)(i & (BLOCK-1)) * width;
+		return freqBases[b] + (int)read(bit, (1L << width) - 1);
+	}
+
+	/**
+	 * Decodes the postings of a block.
+	 *
+	 * @param b Block
+	 * @param docs Filled with the document ids of the block, from index 0
+	 * @param freqs Filled with the frequencies of the block, from index 0, null to only
+	 *        decode document ids
+	 * @return Number of postings in the block
+	 */
+	int decodeBlock(int b, int[] docs, int[] freqs) {
+		int n = Math.min(BLOCK, size - (b << SHIFT));
+		long bit = (long)starts[b] << 6;
+		bit = unpack(docs, n, docBases[b], docBits[b], bit);
+		if (freqs != null) {
+			unpack(freqs, n, freqBases[b], freqBits[b], bit);
+		}
+		return n;
+	}
+
+	/**
+	 * Unpacks n values of the given width, starting at the given bit, adding base to each.
+	 *
+	 * @return Bit just past the packed values
+	 */
+	private long unpack(int[] values, int n, int base, int width, long bit) {
+		if (width == 0) {
+			Arrays.fill(values, 0, n, base);
+			return bit;
+		}
+		long mask = (1L << width) - 1;
+		for (int i=0; i < n; i++) {
+			values[i] = base + (int)read(bit + (long)i * width, mask);
+		}
+		return bit + (long)n * width;
+	}
+
+	/**
+	 * Returns the number of bytes taken by the packed postings, not counting object headers.
+	 *
+	 * @return Number of bytes
+	 */
+	long bytes() {
+		return words.length*8L + starts.length*14L;
+	}
+}
@@ -0,0 +1,470 @@
+package search;
+
+import java.util.*;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The occurrences of a keyword, stored compactly as two parallel arrays of primitive ints:
+ * the ids of the documents the keyword occurs in, and the frequency of occurrence in each.
+ * Postings are kept in descending order of frequencies. The arrays grow by doubling, and can
+ * be trimmed to size once the list is built, so that each posting takes 8 bytes.
+ *
+ * A finished list of at least MIN_PACKED postings can be packed into PackedPostings, which
+ * take a few bytes per posting, and are read a block at a time with decodeBlock. A packed
+ * list is unpacked into arrays again the first time it is changed, so changes must never be
+ * made to a list that other threads read, as in concurrent mode, where lists are copied.
+ *
+ * A list built from positional occurrences also keeps the word positions of the keyword in
+ * each document, as a third parallel array of byte strings, with each position stored as the
+ * varint of its difference from the one before it. Lists without positions pay nothing for
+ * them but a null reference.
+ *
+ */
+class PostingList {
+
+	/**
+	 * Smallest list that is packed by pack.
+	 */
+	static final int MIN_PACKED = 64;
+
+	/**
+	 * Document ids, valid from 0 to size-1, null if the list is packed.
+	 */
+	int[] docs;
+
+	/**
+	 * Frequencies, parallel to docs, null if the list is packed.
+	 */
+	int[] freqs;
+
+	/**
+	 * Packed postings, null unless the list is packed.
+	 */
+	private PackedPostings packed;
+
+	/**
+	 * Encoded positions, parallel to docs, null if this list has no positions.
+	 */
+	byte[][] positions;
+
+	/**
+	 * Number of postings in this list.
+	 */
+	int size;
+
+	/**
+	 * False if postings have been appended out of order since the list was last sorted.
+	 */
+	boolean sorted = true;
+	
+	/**
+	 * Postings in document order with block bounds, built when first needed by ranked search,
+	 * dropped when the list changes.
+	 */
+	private volatile DocBlocks blocks;
+
+	/**
+	 * Initializes an empty list.
+	 */
+	PostingList() {
+		this(2);
+	}
+
+	/**
+	 * Initializes an empty list with room for the given number of postings.
+	 *
+	 * @param capacity Initial capacity
+	 */
+	PostingList(int capacity) {
+		docs = new int[Math.max(capacity, 1)];
+		freqs = new int[docs.length];
+	}
+
+	/**
+	 * Returns the number of postings in this list.
+	 *
+	 * @return Number of postings
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the document id of a posting.
+	 *
+	 * @param i Index of the posting
+	 * @return Document id
+	 */
+	int doc(int i) {
+		PackedPostings p = packed;
+		return p == null ? docs[i] : p.doc(i);
+	}
+
+	/**
+	 * Returns the frequency of a posting.
+	 *
+	 * @param i Index of the posting
+	 * @return Frequency
+	 */
+	int freq(int i) {
+		PackedPostings p = packed;
+		return p == null ? freqs[i] : p.freq(i);
+	}
+
+	/**
+	 * Returns the number of blocks of PackedPostings.BLOCK postings in this list, the last
+	 * of which may be partly filled.
+	 *
+	 * @return Number of blocks
+	 */
+	int blockCount() {
+		return (size + PackedPostings.BLOCK-1) / PackedPostings.BLOCK;
+	}
+
+	/**
+	 * Copies the postings of a block into the given arrays, decoding them if the list is
+	 * packed.
+	 *
+	 * @param b Block, 0..blockCount()-1
+	 * @param d Filled with the document ids of the block, from index 0
+	 * @param f Filled with the frequencies of the block, from index 0, null to only get
+	 *        document ids
+	 * @return Number of postings in the block
+	 */
+	int decodeBlock(int b, int[] d, int[] f) {
+		PackedPostings p = packed;
+		if (p != null) {
+			return p.decodeBlock(b, d, f);
+		}
+		int from = b * PackedPostings.BLOCK, n = Math.min(PackedPostings.BLOCK, size - from);
+		System.arraycopy(docs, from, d, 0, n);
+		if (f != null) {
+			System.arraycopy(freqs, from, f, 0, n);
+		}
+		return n;
+	}
+
+	/**
+	 * Packs this list into PackedPostings, if it is sorted and has at least MIN_PACKED
+	 * postings, and otherwise trims it to size.
+	 */
+	void pack() {
+		if (packed != null) {
+			return;
+		}
+		if (!sorted || size < MIN_PACKED) {
+			trim();
+			return;
+		}
+		packed = new PackedPostings(docs, freqs, size);
+		docs = null;
+		freqs = null;
+		if (positions != null && positions.length != size) {
+			positions = Arrays.copyOf(positions, size);
+		}
+	}
+
+	/**
+	 * Unpacks this list into arrays, with room for the given number of postings, if it is
+	 * packed.
+	 *
+	 * @param capacity Capacity of the arrays, at least size
+	 */
+	private void unpack(int capacity) {
+		PackedPostings p = packed;
+		if (p == null) {
+			return;
+		}
+		int[] d = new int[capacity], f = new int[capacity];
+		unpackInto(p, d, f);
+		docs = d;
+		freqs = f;
+		if (positions != null && positions.length < capacity) {
+			positions = Arrays.copyOf(positions, capacity);
+		}
+		packed = null;
+	}
+
+	/**
+	 * Decodes all packed postings into the given arrays.
+	 */
+	private static void unpackInto(PackedPostings p, int[] d, int[] f) {
+		int[] bd = new int[PackedPostings.BLOCK], bf = new int[PackedPostings.BLOCK];
+		for (int b=0; b < p.blocks(); b++) {
+			int n = p.decodeBlock(b, bd, bf);
+			System.arraycopy(bd, 0, d, b*PackedPostings.BLOCK, n);
+			System.arraycopy(bf, 0, f, b*PackedPostings.BLOCK, n);
+		}
+	}
+
+	/**
+	 * Appends a posting at the end of this list.
+	 *
+	 * @param doc Document id
+	 * @param freq Frequency
+	 */
+	void add(int doc, int freq) {
+		add(doc, freq, null);
+	}
+
+	/**
+	 * Appends a posting with positions at the end of this list.
+	 *
+	 * @param doc Document id
+	 * @param freq Frequency
+	 * @param pos Encoded positions of the keyword in the document, null if there are none
+	 */
+	void add(int doc, int freq, byte[] pos) {
+		unpack(size*2+1);
+		if (size == docs.length) {
+			docs = Arrays.copyOf(docs, size*2);
+			freqs = Arrays.copyOf(freqs, size*2);
+			if (positions != null) {
+				positions = Arrays.copyOf(positions, size*2);
+			}
+		}
+		if (pos != null) {
+			if (positions == null) {
+				positions = new byte[docs.length][];
+			}
+			positions[size] = pos;
+		}
+		if (size > 0 && freq > freqs[size-1]) {
+			sorted = false;
+		}
+		docs[size] = doc;
+		freqs[size] = freq;
+		size++;
+		blocks = null;
+	}
+
+	/**
+	 * Inserts the last posting in the correct position in this list, based on ordering
+	 * postings on descending frequencies. Postings 0..size-2 are already in order. The spot
+	 * is found by binary search; a posting goes after all postings of the same frequency.
+	 *
+	 * @return Sequence of mid point indexes checked by the binary search, null if the
+	 *         list has a single posting
+	 */
+	ArrayList<Integer> insertLast() {
+		if (size == 1) {
+			return null;
+		}
+		unpack(size);
+		ArrayList<Integer> midPts = new ArrayList<Integer>();
+		int doc = docs[size-1], freq = freqs[size-1];
+		byte[] pos = positions == null ? null : positions[size-1];
+		int low = 0, high = size-2;
+		while (low <= high) {
+			int mid = (low+high)/2;
+			midPts.add(mid);
+			if (freqs[mid] >= freq) {
+				low = mid+1;
+			} else {
+				high = mid-1;
+			}
+		}
+		if (low != size-1) {
+			System.arraycopy(docs, low, docs, low+1, size-1-low);
+			System.arraycopy(freqs, low, freqs, low+1, size-1-low);
+			docs[low] = doc;
+			freqs[low] = freq;
+			if (positions != null) {
+				System.arraycopy(positions, low, positions, low+1, size-1-low);
+				positions[low] = pos;
+			}
+		}
+		sorted = true;
+		blocks = null;
+		return midPts;
+	}
+
+	/**
+	 * Returns the postings of this list in document order, cut into blocks with score bounds,
+	 * building them the first time they are asked for.
+	 *
+	 * @param lengths Document lengths, by id
+	 * @return Blocks of this list
+	 */
+	DocBlocks docBlocks(IntUnaryOperator lengths) {
+		DocBlocks b = blocks;
+		if (b == null) {
+			b = new DocBlocks(this, lengths);
+			blocks = b;
+		}
+		return b;
+	}
+	
+	/**
+	 * Returns a copy of this list.
+	 *
+	 * @param capacity Capacity of the copy, at least size
+	 * @return Copy of this list
+	 */
+	PostingList copy(int capacity) {
+		PostingList c = new PostingList(0);
+		PackedPostings p = packed;
+		if (p != null) {
+			c.docs = new int[capacity];
+			c.freqs = new int[capacity];
+			unpackInto(p, c.docs, c.freqs);
+		} else {
+			c.docs = Arrays.copyOf(docs, capacity);
+			c.freqs = Arrays.copyOf(freqs, capacity);
+		}
+		if (positions != null) {
+			c.positions = Arrays.copyOf(positions, capacity);
+		}
+		c.size = size;
+		c.sorted = sorted;
+		return c;
+	}
+
+	/**
+	 * Sorts this list on descending frequencies, after postings were appended with add in no
+	 * particular order. The sort is stable, so postings with the same frequency stay in the
+	 * order they were appended, which gives the same list as inserting each posting in turn
+	 * with insertLast. Frequencies are small compared to list sizes in practice, so the sort
+	 * is a counting sort; a list with a very wide range of frequencies is sorted on packed
+	 * (frequency, position) keys instead.
+	 */
+	void sortByFrequency() {
+		if (sorted) {
+			return;
+		}
+		int max = 0;
+		for (int i=0; i < size; i++) {
+			max = Math.max(max, freqs[i]);
+		}
+		int[] d = new int[size], f = new int[size];
+		byte[][] p = positions == null ? null : new byte[size][];
+		if (max <= 4*size) {
+			// count[max-freq+1] postings of each frequency, highest first
+			int[] count = new int[max+2];
+			for (int i=0; i < size; i++) {
+				count[max-freqs[i]+1]++;
+			}
+			for (int i=1; i < count.length; i++) {
+				count[i] += count[i-1];
+			}
+			for (int i=0; i < size; i++) {
+				int at = count[max-freqs[i]]++;
+				d[at] = docs[i];
+				f[at] = freqs[i];
+				if (p != null) {
+					p[at] = positions[i];
+				}
+			}
+		} else {
+			long[] keys = new long[size];
+			for (int i=0; i < size; i++) {
+				keys[i] = ((long)(Integer.MAX_VALUE - freqs[i]) << 32) | i;
+			}
+			if (size > 1<<16) {
+				Arrays.parallelSort(keys);
+			} else {
+				Arrays.sort(keys);
+			}
+			for (int i=0; i < size; i++) {
+				int from = (int)keys[i];
+				d[i] = docs[from];
+				f[i] = freqs[from];
+				if (p != null) {
+					p[i] = positions[from];
+				}
+			}
+		}
+		docs = d;
+		freqs = f;
+		positions = p;
+		sorted = true;
+		blocks = null;
+	}
+
+	/**
+	 * Returns a copy of this list without the postings of the given documents. Postings
+	 * keep their order.
+	 *
+	 * @param deleted Ids of documents to leave out
+	 * @return Copy of this list, exactly sized
+	 */
+	PostingList without(BitSet deleted) {
+		int[] d = new int[PackedPostings.BLOCK], f = new int[PackedPostings.BLOCK];
+		int n = 0;
+		for (int b=0; b < blockCount(); b++) {
+			int len = decodeBlock(b, d, null);
+			for (int i=0; i < len; i++) {
+				if (!deleted.get(d[i])) {
+					n++;
+				}
+			}
+		}
+		PostingList c = new PostingList(n);
+		for (int b=0; b < blockCount(); b++) {
+			int len = decodeBlock(b, d, f), from = b*PackedPostings.BLOCK;
+			for (int i=0; i < len; i++) {
+				if (!deleted.get(d[i])) {
+					c.add(d[i], f[i], positions == null ? null : positions[from+i]);
+				}
+			}
+		}
+		c.sorted = sorted;
+		return c;
+	}
+
+	/**
+	 * Shrinks the arrays of this list to its size.
+	 */
+	void trim() {
+		if (packed == null && docs.length != size) {
+			docs = Arrays.copyOf(docs, size);
+			freqs = Arrays.copyOf(freqs, size);
+			if (positions != null) {
+				positions = Arrays.copyOf(positions, size);
+			}
+		}
+	}
+
+	/**
+	 * Decodes the positions of a posting.
+	 *
+	 * @param i Index of the posting
+	 * @return Word positions of the keyword in the document, in ascending order
+	 * @throws IllegalStateException If this list has no positions
+	 */
+	int[] positions(int i) {
+		if (positions == null) {
+			throw new IllegalStateException("posting list has no positions");
+		}
+		byte[] b = positions[i];
+		int[] pos = new int[freq(i)];
+		int p = 0, last = 0;
+		for (int n=0; n < pos.length; n++) {
+			int v = 0;
+			for (int shift=0; ; shift+=7) {
+				int x = b[p++];
+				v |= (x & 0x7f) << shift;
+				if (x >= 0) {
+					break;
+				}
+			}
+			last += v;
+			pos[n] = last;
+		}
+		return pos;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i=0; i < size; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append("(").append(doc(i)).append(",").append(freq(i)).append(")");
+		}
+		return sb.append("]").toString();
+	}
+}
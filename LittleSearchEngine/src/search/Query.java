@@ -0,0 +1,207 @@
+package search;
+
+import java.util.*;
+
+/**
+ * A boolean keyword query. A document matches the query if it has every keyword added
+ * with and, none of the keywords added with not, and, if any keywords were added with or,
+ * at least one of those. Matching documents are ranked on the highest frequency of any
+ * of the or/and keywords in them, with ties broken in favor of the keyword that was added
+ * to the query first.
+ *
+ * For example, new Query().or("deep").or("world").not("sea") matches documents that
+ * have deep or world, but not sea.
+ *
+ * Queries can also require keywords to be in a document next to each other, with phrase, or
+ * within a number of words of each other, with near. These need an index that records
+ * keyword positions.
+ *
+ */
+public class Query {
+
+	/**
+	 * Keywords that documents are ranked on, that is the or and and keywords, in the
+	 * order they were added.
+	 */
+	ArrayList<String> terms;
+
+	/**
+	 * Parallel to terms, true for the and keywords.
+	 */
+	ArrayList<Boolean> required;
+
+	/**
+	 * Keywords added with or.
+	 */
+	ArrayList<String> anyTerms;
+
+	/**
+	 * Keywords added with and.
+	 */
+	ArrayList<String> allTerms;
+
+	/**
+	 * Keywords added with not.
+	 */
+	ArrayList<String> noneTerms;
+
+	/**
+	 * Phrase and near constraints.
+	 */
+	ArrayList<Proximity> proximities;
+
+	/**
+	 * Keywords that must be in a document close to each other.
+	 */
+	static class Proximity {
+
+		/**
+		 * Keywords, in phrase order.
+		 */
+		String[] kws;
+
+		/**
+		 * True for a phrase, whose keywords must follow each other in order. Otherwise the
+		 * two keywords may be in either order, at most distance words apart.
+		 */
+		boolean phrase;
+		int distance;
+
+		Proximity(String[] kws, boolean phrase, int distance) {
+			this.kws = kws;
+			this.phrase = phrase;
+			this.distance = distance;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		public String toString() {
+			if (phrase) {
+				return "\"" + String.join(" ", kws) + "\"";
+			}
+			return kws[0] + " NEAR/" + distance + " " + kws[1];
+		}
+	}
+
+	/**
+	 * Initializes an empty query, which matches no documents.
+	 */
+	public Query() {
+		terms = new ArrayList<String>();
+		required = new ArrayList<Boolean>();
+		anyTerms = new ArrayList<String>();
+		allTerms = new ArrayList<String>();
+		noneTerms = new ArrayList<String>();
+		proximities = new ArrayList<Proximity>();
+	}
+
+	/**
+	 * Returns a query that matches documents with any of the given keywords.
+	 *
+	 * @param kws Keywords, in order of precedence for breaking ties
+	 * @return Query
+	 */
+	public static Query anyOf(String... kws) {
+		Query q = new Query();
+		for (String kw : kws) {
+			q.or(kw);
+		}
+		return q;
+	}
+
+	/**
+	 * Adds a keyword, at least one of which must be in a matching document.
+	 *
+	 * @param kw Keyword
+	 * @return This query
+	 */
+	public Query or(String kw) {
+		anyTerms.add(kw);
+		terms.add(kw);
+		required.add(false);
+		return this;
+	}
+
+	/**
+	 * Adds a keyword that must be in a matching document.
+	 *
+	 * @param kw Keyword
+	 * @return This query
+	 */
+	public Query and(String kw) {
+		allTerms.add(kw);
+		terms.add(kw);
+		required.add(true);
+		return this;
+	}
+
+	/**
+	 * Adds a keyword that must not be in a matching document.
+	 *
+	 * @param kw Keyword
+	 * @return This query
+	 */
+	public Query not(String kw) {
+		noneTerms.add(kw);
+		return this;
+	}
+
+	/**
+	 * Adds a phrase that must be in a matching document: its keywords must follow each other
+	 * in order, with no other words, noise words included, in between. The keywords are also
+	 * added with and.
+	 *
+	 * @param kws Keywords of the phrase, in order
+	 * @return This query
+	 */
+	public Query phrase(String... kws) {
+		if (kws.length == 0) {
+			throw new IllegalArgumentException("empty phrase");
+		}
+		for (String kw : kws) {
+			and(kw);
+		}
+		proximities.add(new Proximity(kws.clone(), true, 1));
+		return this;
+	}
+
+	/**
+	 * Adds two keywords that must be in a matching document at most distance words apart,
+	 * in either order. The keywords are also added with and.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @param distance Largest number of words from one keyword to the other, at least 1
+	 * @return This query
+	 */
+	public Query near(String kw1, String kw2, int distance) {
+		if (distance < 1) {
+			throw new IllegalArgumentException("distance must be at least 1, got " + distance);
+		}
+		and(kw1);
+		and(kw2);
+		proximities.add(new Proximity(new String[] {kw1, kw2}, false, distance));
+		return this;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int t=0; t < terms.size(); t++) {
+			if (t > 0) {
+				sb.append(' ');
+			}
+			sb.append(required.get(t) ? "+" : "").append(terms.get(t));
+		}
+		for (String kw : noneTerms) {
+			sb.append(" -").append(kw);
+		}
+		for (Proximity p : proximities) {
+			sb.append(' ').append(p);
+		}
+		return sb.toString();
+	}
+}
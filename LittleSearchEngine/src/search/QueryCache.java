@@ -0,0 +1,242 @@
+package search;
+
+import java.util.*;
+
+/**
+ * A cache of search results, bounded by number of entries, that evicts the least recently
+ * used entry when full. Results are keyed on the normalized query and the number of results
+ * asked for. The cache also keeps track of which entries use each keyword, so that entries
+ * can be dropped exactly when the posting list of one of their keywords changes.
+ *
+ * All methods are synchronized on the cache.
+ *
+ */
+class QueryCache {
+
+	/**
+	 * A cached result, with the keywords it depends on.
+	 */
+	private static class Entry {
+		ArrayList<String> kws;
+		ArrayList<String> docs;
+
+		Entry(ArrayList<String> kws, ArrayList<String> docs) {
+			this.kws = kws;
+			this.docs = docs;
+		}
+	}
+
+	/**
+	 * Cached results in access order, least recently used first.
+	 */
+	private LinkedHashMap<String,Entry> entries;
+
+	/**
+	 * Keys of the cached results that use each keyword.
+	 */
+	private HashMap<String,HashSet<String>> byTerm;
+
+	/**
+	 * Maximum number of cached results.
+	 */
+	private int maxEntries;
+
+	/**
+	 * Number of invalidations so far. A result is only cached if no invalidation happened
+	 * while it was being computed.
+	 */
+	private long invalidations;
+
+	private long hits, misses, evictions;
+
+	/**
+	 * Initializes an empty cache.
+	 *
+	 * @param maxEntries Maximum number of cached results, at least 1
+	 */
+	QueryCache(int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("cache must hold at least one entry, got " + maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		entries = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+		byTerm = new HashMap<String,HashSet<String>>();
+	}
+
+	/**
+	 * Returns the cache key of a query: its ranking keywords in order, since the order breaks
+	 * ties, followed by its not keywords in sorted order, its phrase and near constraints,
+	 * and the number of results. Every keyword is written with its length in front, so that
+	 * no two different queries have the same key, whatever characters the keywords hold.
+	 *
+	 * @param q Query
+	 * @param k Number of results
+	 * @return Key
+	 */
+	static String key(Query q, int k) {
+		StringBuilder sb = new StringBuilder();
+		for (int t=0; t < q.terms.size(); t++) {
+			append(sb.append(q.required.get(t) ? '+' : '|'), q.terms.get(t));
+		}
+		TreeSet<String> none = new TreeSet<String>(q.noneTerms);
+		for (String kw : none) {
+			append(sb.append('-'), kw);
+		}
+		for (Query.Proximity p : q.proximities) {
+			sb.append(p.phrase ? '"' : '~').append(p.distance).append('/').append(p.kws.length);
+			for (String kw : p.kws) {
+				append(sb.append(' '), kw);
+			}
+		}
+		return sb.append('#').append(k).toString();
+	}
+
+	/**
+	 * Appends a keyword to a key as its length, a colon, and the keyword.
+	 */
+	private static void append(StringBuilder sb, String kw) {
+		sb.append(kw.length()).append(':').append(kw);
+	}
+
+	/**
+	 * Looks up a cached result.
+	 *
+	 * @param key Cache key
+	 * @return Cached result, or null if there is none
+	 */
+	synchronized ArrayList<String> get(String key) {
+		Entry e = entries.get(key);
+		if (e == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return e.docs;
+	}
+
+	/**
+	 * Returns a stamp to be passed to put, taken before a result is computed.
+	 *
+	 * @return Stamp
+	 */
+	synchronized long stamp() {
+		return invalidations;
+	}
+
+	/**
+	 * Caches a result, unless an invalidation happened since the stamp was taken, in which
+	 * case the result may already be stale.
+	 *
+	 * @param key Cache key
+	 * @param q Query
+	 * @param docs Result
+	 * @param stamp Stamp taken before the result was computed
+	 */
+	synchronized void put(String key, Query q, ArrayList<String> docs, long stamp) {
+		if (stamp != invalidations) {
+			return;
+		}
+		remove(key);
+		ArrayList<String> kws = new ArrayList<String>(q.terms);
+		kws.addAll(q.noneTerms);
+		entries.put(key, new Entry(kws, docs));
+		for (String kw : kws) {
+			termKeys(kw).add(key);
+		}
+		if (entries.size() > maxEntries) {
+			remove(entries.keySet().iterator().next());
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops all cached results that use a keyword. Called after the keyword's posting list
+	 * has changed.
+	 *
+	 * @param kw Keyword
+	 */
+	synchronized void invalidate(String kw) {
+		invalidations++;
+		HashSet<String> keys = byTerm.get(kw);
+		if (keys != null) {
+			for (String key : new ArrayList<String>(keys)) {
+				remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Drops all cached results that have a document in them. Called after the document
+	 * has been removed. Results without the document are not affected by its removal.
+	 *
+	 * @param doc Document name
+	 */
+	synchronized void invalidateDocument(String doc) {
+		invalidations++;
+		ArrayList<String> stale = new ArrayList<String>();
+		for (Map.Entry<String,Entry> e : entries.entrySet()) {
+			if (e.getValue().docs.contains(doc)) {
+				stale.add(e.getKey());
+			}
+		}
+		for (String key : stale) {
+			remove(key);
+		}
+	}
+
+	/**
+	 * Drops all cached results.
+	 */
+	synchronized void clear() {
+		invalidations++;
+		entries.clear();
+		byTerm.clear();
+	}
+
+	synchronized long hits() {
+		return hits;
+	}
+
+	synchronized long misses() {
+		return misses;
+	}
+
+	synchronized long evictions() {
+		return evictions;
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the set of keys that use a keyword, creating it if needed.
+	 */
+	private HashSet<String> termKeys(String kw) {
+		HashSet<String> keys = byTerm.get(kw);
+		if (keys == null) {
+			keys = new HashSet<String>();
+			byTerm.put(kw, keys);
+		}
+		return keys;
+	}
+
+	/**
+	 * Removes a cached result and its keyword links.
+	 */
+	private void remove(String key) {
+		Entry e = entries.remove(key);
+		if (e == null) {
+			return;
+		}
+		for (String kw : e.kws) {
+			HashSet<String> keys = byTerm.get(kw);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					byTerm.remove(kw);
+				}
+			}
+		}
+	}
+}
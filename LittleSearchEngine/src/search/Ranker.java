@@ -0,0 +1,145 @@
+package search;
+
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Collection statistics and per-document length norms used to score documents in ranked
+ * search. The TF-IDF norm of a document depends only on its length, and is kept by the
+ * documents table as lengths are set, so building a ranker takes constant time and never
+ * holds up a query, however many documents there are. The BM25 norm also depends on the
+ * average length, and is worked out from the document length as it is scored. Keyword
+ * weights depend on the number of documents the keyword is in, which is the size of its
+ * posting list, and are computed per query.
+ *
+ */
+class Ranker {
+
+	/**
+	 * BM25 parameters.
+	 */
+	static final double K1 = 1.2, B = 0.75;
+
+	/**
+	 * Version of the documents table this ranker was built for, and the index file it was
+	 * built for, null if the index is held in memory.
+	 */
+	final long version;
+	final IndexFile file;
+
+	/**
+	 * Number of documents, not counting removed ones.
+	 */
+	final int liveCount;
+
+	/**
+	 * Sum of the lengths of the documents, not counting removed ones.
+	 */
+	final long totalLength;
+
+	/**
+	 * Average document length.
+	 */
+	final double avgLength;
+
+	/**
+	 * Looks up document lengths, by id.
+	 */
+	final IntUnaryOperator lengths;
+
+	/**
+	 * Looks up the TF-IDF norms of documents, by id.
+	 */
+	private final IntToDoubleFunction tfidfNorms;
+
+	/**
+	 * Builds a ranker.
+	 *
+	 * @param version Version of the documents table
+	 * @param file Index file, null if the index is held in memory
+	 * @param liveCount Number of documents, not counting removed ones
+	 * @param totalLength Sum of the lengths of the documents, not counting removed ones
+	 * @param lengths Document lengths, by id
+	 * @param tfidfNorms TF-IDF norms of documents, by id, as given by tfidfNorm
+	 */
+	Ranker(long version, IndexFile file, int liveCount, long totalLength,
+			IntUnaryOperator lengths, IntToDoubleFunction tfidfNorms) {
+		this.version = version;
+		this.file = file;
+		this.liveCount = liveCount;
+		this.totalLength = totalLength;
+		this.lengths = lengths;
+		this.tfidfNorms = tfidfNorms;
+		avgLength = liveCount == 0 ? 1 : Math.max((double)totalLength/liveCount, 1);
+	}
+
+	/**
+	 * Returns the weight of a keyword, from the number of documents that have it.
+	 *
+	 * @param s Scoring function
+	 * @param df Number of documents that have the keyword
+	 * @return Inverse document frequency
+	 */
+	double idf(Scoring s, int df) {
+		// removed documents stay in posting lists until compaction
+		df = Math.min(df, liveCount);
+		if (s == Scoring.BM25) {
+			return Math.log(1 + (liveCount - df + 0.5)/(df + 0.5));
+		}
+		return Math.log(1 + (double)liveCount/Math.max(df, 1));
+	}
+
+	/**
+	 * Returns the score of a keyword in a document.
+	 *
+	 * @param s Scoring function
+	 * @param idf Weight of the keyword
+	 * @param doc Document id
+	 * @param freq Frequency of the keyword in the document
+	 * @return Score
+	 */
+	double score(Scoring s, double idf, int doc, int freq) {
+		if (s == Scoring.BM25) {
+			float norm = bm25Norm(lengths.applyAsInt(doc));
+			return idf * freq * (K1+1) / (freq + norm);
+		}
+		float norm = (float)tfidfNorms.applyAsDouble(doc);
+		return idf * (1 + Math.log(freq)) * norm;
+	}
+
+	/**
+	 * Returns an upper bound on the score of a keyword in any document that is at least
+	 * as long as the given length, and has the keyword at most the given number of times.
+	 * Scores go up with frequency and down with length under both scoring functions.
+	 *
+	 * @param s Scoring function
+	 * @param idf Weight of the keyword
+	 * @param minLength Shortest document length
+	 * @param maxFreq Largest frequency
+	 * @return Score bound
+	 */
+	double bound(Scoring s, double idf, int minLength, int maxFreq) {
+		if (s == Scoring.BM25) {
+			float norm = bm25Norm(minLength);
+			return idf * maxFreq * (K1+1) / (maxFreq + norm);
+		}
+		return idf * (1 + Math.log(maxFreq)) * tfidfNorm(minLength);
+	}
+
+	/**
+	 * Returns the BM25 norm of a document: K1*(1-B+B*length/avgLength).
+	 */
+	private float bm25Norm(int len) {
+		return (float)(K1 * (1 - B + B*len/avgLength));
+	}
+
+	/**
+	 * Returns the TF-IDF norm of a document: 1/sqrt(length).
+	 *
+	 * @param len Document length
+	 * @return Norm
+	 */
+	static float tfidfNorm(int len) {
+		return (float)(1/Math.sqrt(Math.max(len, 1)));
+	}
+}
@@ -0,0 +1,22 @@
+package search;
+
+/**
+ * Scoring functions for ranked search. Both weigh the frequency of a keyword in a document
+ * against how many documents have the keyword, and against the length of the document, so
+ * that long documents do not win just by having more words.
+ *
+ */
+public enum Scoring {
+
+	/**
+	 * Okapi BM25, with k1 = 1.2 and b = 0.75. Repeats of a keyword in a document count for
+	 * less and less, and documents longer than average are scored down.
+	 */
+	BM25,
+
+	/**
+	 * Log frequency times inverse document frequency, divided by the square root of the
+	 * document length.
+	 */
+	TF_IDF
+}
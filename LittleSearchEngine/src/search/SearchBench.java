@@ -0,0 +1,337 @@
+package search;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Benchmark driver for the search engine. Run it from the directory that holds the
+ * sample documents (AliceCh1.txt, WowCh1.txt and noisewords.txt).
+ *
+ * Usage: java search.SearchBench [stop list size [docs [words per doc [vocabulary [skew]]]]]
+ *
+ * The noise word benchmark is followed by a suite that times getKeyWord, loadKeyWords,
+ * mergeKeyWords, insertLastOccurrence, makeIndex and top5search, over the sample documents
+ * and over a synthetic corpus with the given number of documents, words per document,
+ * vocabulary size and Zipf skew (defaults 2000, 500, 50000 and 1.0). Each benchmark is run
+ * for a warm up period, then for a measured period, and reports its throughput and the
+ * bytes it allocated on the benchmark thread, per operation and per second.
+ *
+ */
+public class SearchBench {
+
+	/**
+	 * Sample documents that are tokenized by the benchmarks.
+	 */
+	static final String[] DOCS = {"AliceCh1.txt", "WowCh1.txt"};
+
+	/**
+	 * Number of timed passes over the sample tokens.
+	 */
+	static final int PASSES = 20;
+
+	/**
+	 * Sink for benchmark results, so the JIT can not drop the work being measured.
+	 */
+	static int sink;
+
+	/**
+	 * Time spent warming up, and measuring, each benchmark.
+	 */
+	static final long WARMUP_NANOS = 500_000_000L, MEASURE_NANOS = 1_000_000_000L;
+
+	/**
+	 * One pass of a benchmark.
+	 */
+	interface Pass {
+		void run() throws IOException;
+	}
+
+	/**
+	 * Runs a benchmark and prints its throughput and allocation rate. Allocation is that of
+	 * the calling thread only, so work handed to other threads is not counted.
+	 *
+	 * @param name Name of the benchmark
+	 * @param opsPerPass Number of operations done by each pass
+	 * @param pass Benchmark pass
+	 * @throws IOException If the pass throws it
+	 */
+	static void bench(String name, long opsPerPass, Pass pass)
+	throws IOException {
+		com.sun.management.ThreadMXBean mx =
+			(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		long end = System.nanoTime() + WARMUP_NANOS;
+		while (System.nanoTime() < end) {
+			pass.run();
+		}
+		long passes = 0;
+		long bytes = mx.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		do {
+			pass.run();
+			passes++;
+		} while (System.nanoTime() - start < MEASURE_NANOS);
+		long nanos = System.nanoTime() - start;
+		bytes = mx.getThreadAllocatedBytes(thread) - bytes;
+
+		double ops = (double)passes * opsPerPass;
+		System.out.printf("  %-34s %14.0f ops/s %12.0f B/op %10.1f MB/s%n", name,
+			ops * 1e9 / nanos, bytes / ops, bytes * 1e3 / nanos);
+	}
+
+	/**
+	 * Noise word check as it was done before noise words were looked up by hashing: a scan
+	 * over every noise word with equalsIgnoreCase.
+	 *
+	 * @param noiseWords Noise words table
+	 * @param word Lower cased word
+	 * @return True if word is a noise word
+	 */
+	static boolean scanNoiseWords(HashMap<String,String> noiseWords, String word) {
+		for (String key : noiseWords.keySet()) {
+			if (word.equalsIgnoreCase(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads all whitespace separated tokens of the sample documents.
+	 *
+	 * @return All tokens, in document order
+	 * @throws FileNotFoundException If a sample document is not found on disk
+	 */
+	static ArrayList<String> readTokens()
+	throws FileNotFoundException {
+		ArrayList<String> tokens = new ArrayList<String>();
+		for (String doc : DOCS) {
+			Scanner sc = new Scanner(new File(doc));
+			while (sc.hasNext()) {
+				tokens.add(sc.next());
+			}
+			sc.close();
+		}
+		return tokens;
+	}
+
+	/**
+	 * Compares the old linear noise word scan with the hashed lookup done by getKeyWord,
+	 * using the noisewords.txt list padded with generated words up to the given size.
+	 *
+	 * @param stopListSize Number of noise words to use
+	 * @throws FileNotFoundException If a sample file is not found on disk
+	 */
+	static void benchNoiseWords(int stopListSize)
+	throws FileNotFoundException {
+		LittleSearchEngine engine = new LittleSearchEngine();
+		Scanner sc = new Scanner(new File("noisewords.txt"));
+		while (sc.hasNext()) {
+			engine.addNoiseWord(sc.next());
+		}
+		sc.close();
+		for (int i=0; engine.noiseWords.size() < stopListSize; i++) {
+			engine.addNoiseWord("zz" + Integer.toString(i, 26));
+		}
+
+		ArrayList<String> tokens = readTokens();
+		ArrayList<String> lowered = new ArrayList<String>(tokens.size());
+		for (String token : tokens) {
+			lowered.add(token.toLowerCase());
+		}
+
+		long scanNanos = 0, hashNanos = 0;
+		for (int pass=0; pass <= PASSES; pass++) {
+			long start = System.nanoTime();
+			for (String word : lowered) {
+				if (scanNoiseWords(engine.noiseWords, word)) {
+					sink++;
+				}
+			}
+			long mid = System.nanoTime();
+			for (String token : tokens) {
+				if (engine.getKeyWord(token) != null) {
+					sink++;
+				}
+			}
+			long end = System.nanoTime();
+			if (pass > 0) { // first pass is warm up
+				scanNanos += mid - start;
+				hashNanos += end - mid;
+			}
+		}
+
+		long words = (long)tokens.size() * PASSES;
+		System.out.println("noise words: " + engine.noiseWords.size() + ", tokens: " + tokens.size());
+		System.out.printf("  linear scan   %12.0f tokens/s%n", words * 1e9 / scanNanos);
+		System.out.printf("  getKeyWord    %12.0f tokens/s%n", words * 1e9 / hashNanos);
+	}
+
+	/**
+	 * Runs the benchmarks of the engine's indexing and search methods over the sample
+	 * documents and a synthetic corpus.
+	 *
+	 * @param docs Number of synthetic documents
+	 * @param wordsPerDoc Number of words in each synthetic document
+	 * @param vocabulary Number of distinct words in the synthetic corpus
+	 * @param skew Zipf exponent of word frequencies in the synthetic corpus
+	 * @throws IOException If a file can not be read or written
+	 */
+	static void benchSuite(int docs, int wordsPerDoc, int vocabulary, double skew)
+	throws IOException {
+		File dir = Files.createTempDirectory("zipf").toFile();
+		try {
+			ZipfCorpus corpus = new ZipfCorpus(vocabulary, skew, 42);
+			String docsFile = corpus.write(dir, docs, wordsPerDoc);
+			ArrayList<String> names = new ArrayList<String>();
+			Scanner sc = new Scanner(new File(docsFile));
+			while (sc.hasNext()) {
+				names.add(sc.next());
+			}
+			sc.close();
+
+			final LittleSearchEngine engine = new LittleSearchEngine();
+			engine.makeIndex("docs.txt", "noisewords.txt");
+			System.out.println("sample documents: " + String.join(", ", DOCS));
+
+			final ArrayList<String> tokens = readTokens();
+			bench("getKeyWord", tokens.size(), () -> {
+				for (String token : tokens) {
+					if (engine.getKeyWord(token) != null) {
+						sink++;
+					}
+				}
+			});
+			bench("loadKeyWords", DOCS.length, () -> {
+				for (String doc : DOCS) {
+					sink += engine.loadKeyWords(doc).size();
+				}
+			});
+			bench("makeIndex", DOCS.length, () -> {
+				LittleSearchEngine e = new LittleSearchEngine();
+				e.makeIndex("docs.txt", "noisewords.txt");
+				sink += e.keywordsIndex.size();
+			});
+			final ArrayList<String> sampleKws = new ArrayList<String>(engine.keywordsIndex.keySet());
+			benchQueries("top5search", engine, sampleKws, null);
+
+			System.out.printf("synthetic corpus: %d docs, %d words each, vocabulary %d, skew %.2f%n",
+				docs, wordsPerDoc, vocabulary, skew);
+			final ArrayList<HashMap<String,Occurrence>> loaded = new ArrayList<HashMap<String,Occurrence>>();
+			for (String name : names) {
+				loaded.add(engine.loadKeyWords(name));
+			}
+			bench("loadKeyWords", names.size(), () -> {
+				for (String name : names) {
+					sink += engine.loadKeyWords(name).size();
+				}
+			});
+			bench("mergeKeyWords", names.size(), () -> {
+				LittleSearchEngine e = new LittleSearchEngine();
+				for (HashMap<String,Occurrence> kws : loaded) {
+					e.mergeKeyWords(kws);
+				}
+				sink += e.keywordsIndex.size();
+			});
+			bench("makeIndex", names.size(), () -> {
+				LittleSearchEngine e = new LittleSearchEngine();
+				e.makeIndex(docsFile, "noisewords.txt");
+				sink += e.keywordsIndex.size();
+			});
+			int threads = Runtime.getRuntime().availableProcessors();
+			bench("makeIndex, " + threads + " threads", names.size(), () -> {
+				LittleSearchEngine e = new LittleSearchEngine();
+				e.makeIndex(docsFile, "noisewords.txt", threads);
+				sink += e.keywordsIndex.size();
+			});
+			benchInsertLast(names.size());
+
+			final LittleSearchEngine synthetic = new LittleSearchEngine();
+			synthetic.makeIndex(docsFile, "noisewords.txt");
+			benchQueries("top5search", synthetic, null, corpus);
+		} finally {
+			File[] files = dir.listFiles();
+			if (files != null) {
+				for (File f : files) {
+					f.delete();
+				}
+			}
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Times inserting postings into a posting list of the given size with
+	 * insertLastOccurrence, each with a random frequency.
+	 *
+	 * @param size Size of the list
+	 * @throws IOException Never
+	 */
+	static void benchInsertLast(int size)
+	throws IOException {
+		final LittleSearchEngine engine = new LittleSearchEngine();
+		final Random random = new Random(7);
+		final int inserts = 1000;
+		final int[] freqs = new int[inserts];
+		for (int i=0; i < inserts; i++) {
+			freqs[i] = 1 + random.nextInt(100);
+		}
+		final PostingList base = new PostingList(size);
+		for (int i=0; i < size; i++) {
+			base.add(i, 1 + random.nextInt(100));
+		}
+		base.sortByFrequency();
+		bench("insertLastOccurrence, list " + size, inserts, () -> {
+			PostingList occs = base.copy(size + inserts);
+			for (int i=0; i < inserts; i++) {
+				occs.add(size+i, freqs[i]);
+				engine.insertLastOccurrence(occs);
+			}
+			sink += occs.freq(0);
+		});
+	}
+
+	/**
+	 * Times top5search on random keyword pairs, drawn uniformly from the given keywords,
+	 * or by frequency from the given corpus.
+	 *
+	 * @param name Name of the benchmark
+	 * @param engine Indexed engine
+	 * @param kws Keywords to draw from, null to draw from the corpus
+	 * @param corpus Corpus to draw keywords from, if kws is null
+	 * @throws IOException Never
+	 */
+	static void benchQueries(String name, final LittleSearchEngine engine, ArrayList<String> kws,
+			ZipfCorpus corpus)
+	throws IOException {
+		Random random = new Random(11);
+		final int queries = 1000;
+		final String[] kw1 = new String[queries], kw2 = new String[queries];
+		for (int i=0; i < queries; i++) {
+			kw1[i] = kws != null ? kws.get(random.nextInt(kws.size())) : ZipfCorpus.word(corpus.nextRank());
+			kw2[i] = kws != null ? kws.get(random.nextInt(kws.size())) : ZipfCorpus.word(corpus.nextRank());
+		}
+		bench(name, queries, () -> {
+			for (int i=0; i < queries; i++) {
+				ArrayList<String> docs = engine.top5search(kw1[i], kw2[i]);
+				if (docs != null) {
+					sink += docs.size();
+				}
+			}
+		});
+	}
+
+	public static void main(String[] args)
+	throws IOException {
+		int stopListSize = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int docs = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		int wordsPerDoc = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+		int vocabulary = args.length > 3 ? Integer.parseInt(args[3]) : 50000;
+		double skew = args.length > 4 ? Double.parseDouble(args[4]) : 1.0;
+		benchNoiseWords(stopListSize);
+		benchSuite(docs, wordsPerDoc, vocabulary, skew);
+	}
+}
@@ -0,0 +1,608 @@
+package search;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A keywords index made of segments, for adding documents at a steady rate while searching.
+ * New documents go into a small in-memory segment. Once that segment holds enough documents,
+ * it is flushed to an immutable index file in the segment directory, and a new in-memory
+ * segment is started. A background thread merges on-disk segments of about the same size into
+ * larger ones, a run of MERGE_FACTOR adjacent segments at a time, so the number of segments
+ * stays logarithmic in the number of documents. Adding a document thus only ever touches the
+ * posting lists of the small in-memory segment, however large the index gets.
+ *
+ * Searches look at every segment and merge the results. Segments are kept in the order their
+ * documents were added, and merges only ever combine adjacent segments, so results, ties
+ * included, are the same as those of a LittleSearchEngine that indexed the same documents in
+ * the same order. Searches never block: they work on a snapshot of the segment list, and the
+ * segments in it never change under them, other than gaining deletions.
+ *
+ */
+public class SegmentedSearchEngine {
+
+	/**
+	 * Number of segments of the same size tier that are merged into one.
+	 */
+	static final int MERGE_FACTOR = 4;
+
+	/**
+	 * A part of the index, either in memory or in an index file. Document ids are local to
+	 * the segment.
+	 */
+	private static class Segment {
+
+		/**
+		 * Documents and postings of an in-memory segment, null for an on-disk segment.
+		 */
+		LittleSearchEngine mem;
+
+		/**
+		 * Index file of an on-disk segment, and its path.
+		 */
+		IndexFile file;
+		Path path;
+
+		/**
+		 * Removed documents of an on-disk segment, replaced by an updated copy on every removal.
+		 */
+		volatile BitSet deleted;
+
+		/**
+		 * Ids of the documents of an on-disk segment that have not been removed.
+		 */
+		HashMap<String,Integer> ids;
+
+		Segment(LittleSearchEngine mem) {
+			this.mem = mem;
+		}
+
+		Segment(IndexFile file, Path path, BitSet deleted) {
+			this.file = file;
+			this.path = path;
+			this.deleted = deleted;
+			ids = new HashMap<String,Integer>();
+			for (int d=0; d < file.docCount(); d++) {
+				if (!deleted.get(d)) {
+					ids.put(file.document(d), d);
+				}
+			}
+		}
+
+		/**
+		 * Returns the documents of this segment that have a keyword, null if it is not
+		 * indexed. Postings on disk are read in place.
+		 */
+		BitSet docSet(String kw) {
+			if (mem != null) {
+				PostingList occs = mem.postings(kw);
+				return occs == null ? null : LittleSearchEngine.docSet(occs);
+			}
+			IndexFile.Postings occs = file.scan(kw);
+			return occs == null ? null : LittleSearchEngine.docSet(occs);
+		}
+
+		/**
+		 * Returns a cursor at the first posting of a keyword in this segment, null if it has
+		 * no postings. Postings on disk are read in place.
+		 */
+		Cursor cursor(String kw, int term, int segment) {
+			Cursor c;
+			if (mem != null) {
+				PostingList occs = mem.postings(kw);
+				c = occs == null ? null : new Cursor(occs, null, term, segment);
+			} else {
+				IndexFile.Postings occs = file.scan(kw);
+				c = occs == null ? null : new Cursor(null, occs, term, segment);
+			}
+			return c != null && c.next() ? c : null;
+		}
+
+		String document(int id) {
+			return mem != null ? mem.document(id) : file.document(id);
+		}
+
+		BitSet deleted() {
+			return mem != null ? mem.deleted : deleted;
+		}
+
+		int docCount() {
+			return mem != null ? mem.documents.size() : file.docCount();
+		}
+
+		int liveCount() {
+			return mem != null ? mem.documents.liveCount() : ids.size();
+		}
+	}
+
+	/**
+	 * Directory the segment files are written to.
+	 */
+	private Path dir;
+
+	/**
+	 * Number of documents in the in-memory segment that triggers a flush.
+	 */
+	private int maxBufferedDocs;
+
+	/**
+	 * Scans documents for keywords; holds the noise words.
+	 */
+	private LittleSearchEngine loader;
+
+	/**
+	 * All segments, oldest first, the in-memory segment last. The list is replaced by an
+	 * updated copy on every change, so searches can read it without locking.
+	 */
+	private volatile ArrayList<Segment> segments;
+
+	/**
+	 * Segment of each document that has not been removed.
+	 */
+	private HashMap<String,Segment> owner;
+
+	/**
+	 * Number used in the name of the next segment file.
+	 */
+	private int nextFile;
+
+	/**
+	 * Serializes changes to the segment list and the owner table.
+	 */
+	private final Object writeLock = new Object();
+
+	/**
+	 * Runs merges in the background.
+	 */
+	private ExecutorService merger;
+
+	/**
+	 * First error thrown by a background merge, reported by close.
+	 */
+	private volatile Throwable mergeError;
+
+	/**
+	 * Initializes an empty index.
+	 *
+	 * @param dir Directory to write segment files to; it must exist
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param maxBufferedDocs Number of documents held in memory before they are flushed to disk
+	 * @throws FileNotFoundException If the noise words file is not found on disk
+	 */
+	public SegmentedSearchEngine(String dir, String noiseWordsFile, int maxBufferedDocs)
+	throws FileNotFoundException {
+		if (maxBufferedDocs < 1) {
+			throw new IllegalArgumentException("need to buffer at least one document, got " + maxBufferedDocs);
+		}
+		this.dir = Paths.get(dir);
+		this.maxBufferedDocs = maxBufferedDocs;
+		loader = new LittleSearchEngine();
+		Scanner sc = new Scanner(new File(noiseWordsFile));
+		while (sc.hasNext()) {
+			loader.addNoiseWord(sc.next());
+		}
+		sc.close();
+		segments = new ArrayList<Segment>();
+		segments.add(new Segment(new LittleSearchEngine(true)));
+		owner = new HashMap<String,Segment>();
+		merger = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "segment-merger");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Adds a document to the in-memory segment, and flushes the segment to disk if it is full.
+	 *
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @throws IllegalArgumentException If the document is already indexed
+	 */
+	public void addDocument(String docFile)
+	throws FileNotFoundException {
+		HashMap<String,Occurrence> kws = loader.loadKeyWords(docFile);
+		synchronized (writeLock) {
+			if (owner.containsKey(docFile)) {
+				throw new IllegalArgumentException(docFile + " is already indexed");
+			}
+			Segment mem = segments.get(segments.size()-1);
+			mem.mem.documents.id(docFile);
+			mem.mem.mergeKeyWords(kws);
+			owner.put(docFile, mem);
+			if (mem.liveCount() >= maxBufferedDocs) {
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Adds all documents listed in a file, in order.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	public void addDocuments(String docsFile)
+	throws FileNotFoundException {
+		Scanner sc = new Scanner(new File(docsFile));
+		try {
+			while (sc.hasNext()) {
+				addDocument(sc.next());
+			}
+		} finally {
+			sc.close();
+		}
+	}
+
+	/**
+	 * Removes a document from the index. Its postings are dropped when its segment is next
+	 * flushed or merged.
+	 *
+	 * @param docFile Name of the document file
+	 * @return True if the document was in the index
+	 */
+	public boolean removeDocument(String docFile) {
+		synchronized (writeLock) {
+			Segment seg = owner.remove(docFile);
+			if (seg == null) {
+				return false;
+			}
+			if (seg.mem != null) {
+				seg.mem.removeDocument(docFile);
+			} else {
+				BitSet del = (BitSet)seg.deleted.clone();
+				del.set(seg.ids.remove(docFile));
+				seg.deleted = del;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Writes the in-memory segment to a new segment file, if it has any documents, and starts
+	 * a new in-memory segment. Segments are then merged in the background if needed.
+	 */
+	public void flush() {
+		synchronized (writeLock) {
+			int last = segments.size()-1;
+			Segment mem = segments.get(last);
+			if (mem.docCount() == 0) {
+				return;
+			}
+			Segment flushed;
+			try {
+				Path path = nextPath();
+				BitSet deleted = (BitSet)mem.mem.deleted.clone();
+				mem.mem.saveIndex(path.toString());
+				flushed = new Segment(IndexFile.open(path.toString()), path, deleted);
+			} catch (IOException e) {
+				throw new UncheckedIOException("could not flush segment", e);
+			}
+			ArrayList<Segment> segs = new ArrayList<Segment>(segments);
+			segs.set(last, flushed);
+			segs.add(new Segment(new LittleSearchEngine(true)));
+			for (String doc : flushed.ids.keySet()) {
+				owner.put(doc, flushed);
+			}
+			segments = segs;
+			merger.execute(this::mergeSegments);
+		}
+	}
+
+	/**
+	 * Returns the number of segments, including the in-memory segment.
+	 *
+	 * @return Number of segments
+	 */
+	public int segmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", over all segments. See LittleSearchEngine.top5search.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of NAMES of documents in which either kw1 or kw2 occurs, arranged in descending order of
+	 *         frequencies. The result size is limited to 5 documents. If there are no matching documents,
+	 *         the result is null.
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		ArrayList<String> finDocs = search(Query.anyOf(kw1, kw2), 5);
+		return finDocs.isEmpty() ? null : finDocs;
+	}
+
+	/**
+	 * Searches all segments for the top k documents that match a query. The posting lists of
+	 * each ranking keyword in every segment are merged with a single heap, highest frequency
+	 * first, with ties going to the keyword that comes first in the query, then to the older
+	 * segment, then to the document that was indexed first, as in LittleSearchEngine.search.
+	 *
+	 * @param q Query
+	 * @param k Maximum number of documents to return
+	 * @return List of NAMES of the top k matching documents, best first. Empty if no documents match.
+	 * @throws IllegalArgumentException If the query has phrase or near constraints
+	 */
+	public ArrayList<String> search(Query q, int k) {
+		ArrayList<String> finDocs = new ArrayList<String>(Math.min(Math.max(k, 0), 16));
+		if (k <= 0) {
+			return finDocs;
+		}
+		if (!q.proximities.isEmpty()) {
+			throw new IllegalArgumentException("segmented index does not record keyword positions");
+		}
+		ArrayList<Segment> segs = segments;
+		int n = segs.size();
+
+		// and/not/or tests of each segment, as in LittleSearchEngine.search
+		BitSet[][] all = new BitSet[n][], none = new BitSet[n][];
+		BitSet[] any = new BitSet[n], del = new BitSet[n], seen = new BitSet[n];
+		PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(Math.max(n*q.terms.size(), 1));
+		for (int s=0; s < n; s++) {
+			Segment seg = segs.get(s);
+			del[s] = seg.deleted();
+			seen[s] = new BitSet();
+			all[s] = new BitSet[q.allTerms.size()];
+			boolean skip = false;
+			for (int t=0; t < all[s].length && !skip; t++) {
+				all[s][t] = seg.docSet(q.allTerms.get(t));
+				skip = all[s][t] == null;
+			}
+			if (skip) {
+				continue; // no document of this segment has all the and keywords
+			}
+			none[s] = new BitSet[q.noneTerms.size()];
+			for (int t=0; t < none[s].length; t++) {
+				none[s][t] = seg.docSet(q.noneTerms.get(t));
+				if (none[s][t] == null) {
+					none[s][t] = new BitSet();
+				}
+			}
+			if (!q.anyTerms.isEmpty() && all[s].length > 0) {
+				any[s] = new BitSet();
+				for (String kw : q.anyTerms) {
+					BitSet docs = seg.docSet(kw);
+					if (docs != null) {
+						any[s].or(docs);
+					}
+				}
+			}
+			for (int t=0; t < q.terms.size(); t++) {
+				Cursor c = seg.cursor(q.terms.get(t), t, s);
+				if (c != null) {
+					heap.add(c);
+				}
+			}
+		}
+
+		while (!heap.isEmpty() && finDocs.size() < k) {
+			Cursor c = heap.poll();
+			int s = c.segment, doc = c.doc;
+			if (!seen[s].get(doc)) {
+				seen[s].set(doc);
+				if (!del[s].get(doc) && LittleSearchEngine.matches(doc, any[s], all[s], none[s])) {
+					finDocs.add(segs.get(s).document(doc));
+				}
+			}
+			if (c.next()) {
+				heap.add(c);
+			}
+		}
+		return finDocs;
+	}
+
+	/**
+	 * Flushes the in-memory segment, waits for background merges to finish, and stops the
+	 * merge thread. Segment files are left in the segment directory.
+	 *
+	 * @throws IOException If a background merge failed
+	 */
+	public void close()
+	throws IOException {
+		flush();
+		merger.shutdown();
+		try {
+			merger.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (mergeError != null) {
+			throw new IOException("segment merge failed", mergeError);
+		}
+	}
+
+	/**
+	 * Position in the posting list of one of the keywords of a query in one segment, ordered
+	 * for the heap merge in search.
+	 */
+	private static class Cursor implements Comparable<Cursor> {
+		/**
+		 * Postings of an in-memory segment, or of a segment on disk read in place; the other
+		 * is null
+		 */
+		PostingList occs;
+		IndexFile.Postings in;
+
+		int term, segment;
+		int pos = -1, doc, freq;
+
+		Cursor(PostingList occs, IndexFile.Postings in, int term, int segment) {
+			this.occs = occs;
+			this.in = in;
+			this.term = term;
+			this.segment = segment;
+		}
+
+		/**
+		 * Moves to the next posting.
+		 *
+		 * @return False if there are no more postings
+		 */
+		boolean next() {
+			if (in != null) {
+				if (!in.next()) {
+					return false;
+				}
+				doc = in.doc();
+				freq = in.freq();
+				return true;
+			}
+			if (++pos == occs.size()) {
+				return false;
+			}
+			doc = occs.doc(pos);
+			freq = occs.freq(pos);
+			return true;
+		}
+
+		public int compareTo(Cursor o) {
+			if (freq != o.freq) {
+				return freq > o.freq ? -1 : 1;
+			}
+			if (term != o.term) {
+				return term - o.term;
+			}
+			return segment - o.segment;
+		}
+	}
+
+	/**
+	 * Merges runs of MERGE_FACTOR adjacent on-disk segments of the same size tier, until
+	 * there are none left. Runs on the merge thread.
+	 */
+	private void mergeSegments() {
+		try {
+			List<Segment> run;
+			while ((run = pickMerge()) != null) {
+				merge(run);
+			}
+		} catch (Throwable e) {
+			if (mergeError == null) {
+				mergeError = e;
+			}
+		}
+	}
+
+	/**
+	 * Finds the oldest run of MERGE_FACTOR adjacent on-disk segments in the same size tier.
+	 * A segment's tier is the number of times MERGE_FACTOR fits into its number of
+	 * documents in units of maxBufferedDocs, on a log scale.
+	 *
+	 * @return Segments to merge, or null if there are none
+	 */
+	private List<Segment> pickMerge() {
+		ArrayList<Segment> segs = segments;
+		int start = 0;
+		for (int s=1; s < segs.size()-1; s++) {
+			if (tier(segs.get(s)) != tier(segs.get(start))) {
+				start = s;
+			}
+			if (s-start+1 == MERGE_FACTOR) {
+				return new ArrayList<Segment>(segs.subList(start, s+1));
+			}
+		}
+		return null;
+	}
+
+	private int tier(Segment seg) {
+		int tier = 0;
+		for (long size = (long)maxBufferedDocs*MERGE_FACTOR; seg.docCount() >= size; size *= MERGE_FACTOR) {
+			tier++;
+		}
+		return tier;
+	}
+
+	/**
+	 * Merges adjacent on-disk segments into a new segment file, leaving out removed documents,
+	 * and puts the new segment in their place. Documents keep their order, and so do postings
+	 * of the same frequency. Documents removed while the merge ran are removed from the new
+	 * segment before it is put in place.
+	 *
+	 * @param run Segments to merge, oldest first
+	 * @throws IOException If the new segment file can not be written
+	 */
+	private void merge(List<Segment> run)
+	throws IOException {
+		BitSet[] deleted = new BitSet[run.size()];
+		for (int i=0; i < deleted.length; i++) {
+			deleted[i] = run.get(i).deleted;
+		}
+
+		// number the documents that are left, in order
+		DocTable docs = new DocTable();
+		int[][] newIds = new int[run.size()][];
+		for (int i=0; i < run.size(); i++) {
+			IndexFile file = run.get(i).file;
+			newIds[i] = new int[file.docCount()];
+			for (int d=0; d < file.docCount(); d++) {
+				if (deleted[i].get(d)) {
+					newIds[i][d] = -1;
+				} else {
+					newIds[i][d] = docs.id(file.document(d));
+					docs.setLength(newIds[i][d], file.length(d));
+				}
+			}
+		}
+
+		HashMap<String,PostingList> index = new HashMap<String,PostingList>(1000,2.0f);
+		for (int i=0; i < run.size(); i++) {
+			IndexFile file = run.get(i).file;
+			for (int t=0; t < file.termCount(); t++) {
+				PostingList occs = file.postings(t);
+				PostingList merged = null;
+				for (int p=0; p < occs.size(); p++) {
+					int doc = newIds[i][occs.doc(p)];
+					if (doc != -1) {
+						if (merged == null) {
+							merged = index.computeIfAbsent(file.term(t), kw -> new PostingList());
+						}
+						merged.add(doc, occs.freq(p));
+					}
+				}
+			}
+		}
+		for (PostingList occs : index.values()) {
+			occs.sortByFrequency();
+		}
+
+		Path path;
+		synchronized (writeLock) {
+			path = nextPath();
+		}
+		IndexFile.write(index, docs, path.toString());
+		IndexFile file = IndexFile.open(path.toString());
+
+		synchronized (writeLock) {
+			// carry over removals made during the merge
+			BitSet del = new BitSet();
+			for (int i=0; i < run.size(); i++) {
+				BitSet now = (BitSet)run.get(i).deleted.clone();
+				now.andNot(deleted[i]);
+				for (int d = now.nextSetBit(0); d >= 0; d = now.nextSetBit(d+1)) {
+					del.set(newIds[i][d]);
+				}
+			}
+			Segment merged = new Segment(file, path, del);
+			for (String doc : merged.ids.keySet()) {
+				owner.put(doc, merged);
+			}
+			ArrayList<Segment> segs = new ArrayList<Segment>(segments);
+			int at = segs.indexOf(run.get(0));
+			segs.subList(at, at+run.size()).clear();
+			segs.add(at, merged);
+			segments = segs;
+		}
+		for (Segment seg : run) {
+			Files.deleteIfExists(seg.path);
+		}
+	}
+
+	/**
+	 * Returns the path of the next segment file. Must be called holding writeLock.
+	 */
+	private Path nextPath() {
+		return dir.resolve("segment_" + (nextFile++) + ".idx");
+	}
+}
@@ -0,0 +1,493 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A keywords index split into shards, each a LittleSearchEngine of its own, so that no single
+ * keywords table has to hold the whole collection. Documents are spread over the shards on
+ * the hash of their names, so a document always goes to the same shard. Every document is
+ * also given a global ordinal, the position it would have in a single engine that indexed the
+ * same documents in the same order, and since each shard indexes its documents in that order
+ * too, ordinals go up with document ids within a shard.
+ *
+ * A search is sent to all shards at once, each on its own thread, and each shard finds its
+ * own top k. The results are merged on what the documents were ranked on, with ties going to
+ * the lower ordinal, so the top k of the merge are exactly the top k of a single engine over
+ * all documents. Ranked search first adds up the number of documents, their total length and
+ * the number of documents that have each keyword over all shards, and has every shard score
+ * its documents with these, so scores are those of a single engine too. For that, removed
+ * documents are dropped from the posting lists of all shards at the same time, when the
+ * documents removed add up to the same share of all documents as in a single engine.
+ *
+ * Searches may run while documents are added or removed. Results are those of a single engine
+ * when no changes are under way.
+ *
+ */
+public class ShardedSearchEngine {
+
+	/**
+	 * A shard, with the global ordinal of each of its documents, by document id.
+	 */
+	private static class Shard {
+		LittleSearchEngine engine;
+
+		/**
+		 * Replaced by a larger copy when full. Entries are set before the documents they
+		 * are for are merged into the shard, so searches always find them.
+		 */
+		volatile int[] ordinals = new int[64];
+
+		Shard(LittleSearchEngine engine) {
+			this.engine = engine;
+		}
+
+		/**
+		 * Gives a document an id in this shard, and records its ordinal.
+		 */
+		int add(String docFile, int ordinal) {
+			int id = engine.documents.id(docFile);
+			int[] ords = ordinals;
+			if (id >= ords.length) {
+				ords = Arrays.copyOf(ords, Math.max(ords.length*2, id+1));
+			}
+			ords[id] = ordinal;
+			ordinals = ords;
+			return id;
+		}
+	}
+
+	/**
+	 * A document found in a shard, with its name and ordinal, ordered for the merge of the
+	 * results of all shards.
+	 */
+	private static class Hit implements Comparable<Hit> {
+		LittleSearchEngine.Hit hit;
+		String document;
+		int ordinal;
+
+		Hit(LittleSearchEngine.Hit hit, String document, int ordinal) {
+			this.hit = hit;
+			this.document = document;
+			this.ordinal = ordinal;
+		}
+
+		public int compareTo(Hit o) {
+			if (hit.score != o.hit.score) {
+				return hit.score > o.hit.score ? -1 : 1;
+			}
+			if (hit.freq != o.hit.freq) {
+				return hit.freq > o.hit.freq ? -1 : 1;
+			}
+			if (hit.term != o.hit.term) {
+				return hit.term - o.hit.term;
+			}
+			return ordinal - o.ordinal;
+		}
+	}
+
+	private Shard[] shards;
+
+	/**
+	 * Scans documents for keywords; holds the noise words.
+	 */
+	private LittleSearchEngine loader;
+
+	/**
+	 * Number of ordinals given out, which is the number of document ids a single engine
+	 * would have handed out.
+	 */
+	private int ordinals;
+
+	/**
+	 * Number of documents removed since the shards were last compacted.
+	 */
+	private int pendingDeletes;
+
+	/**
+	 * Serializes changes to the shards.
+	 */
+	private final Object writeLock = new Object();
+
+	/**
+	 * Runs the shards' part of searches, one thread per shard.
+	 */
+	private ExecutorService workers;
+
+	/**
+	 * Runs the shards' part of bulk loads, one thread per shard, apart from the searches so
+	 * that searches do not wait behind a bulk load.
+	 */
+	private ExecutorService loaders;
+
+	/**
+	 * Initializes an empty index.
+	 *
+	 * @param numShards Number of shards, at least 1
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If the noise words file is not found on disk
+	 */
+	public ShardedSearchEngine(int numShards, String noiseWordsFile)
+	throws FileNotFoundException {
+		this(numShards, noiseWordsFile, false);
+	}
+
+	/**
+	 * Initializes an empty index, optionally recording the positions of keywords in documents
+	 * for phrase and near queries.
+	 *
+	 * @param numShards Number of shards, at least 1
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param positional True to record keyword positions
+	 * @throws FileNotFoundException If the noise words file is not found on disk
+	 */
+	public ShardedSearchEngine(int numShards, String noiseWordsFile, boolean positional)
+	throws FileNotFoundException {
+		if (numShards < 1) {
+			throw new IllegalArgumentException("need at least one shard, got " + numShards);
+		}
+		loader = new LittleSearchEngine(false, positional);
+		Scanner sc = new Scanner(new File(noiseWordsFile));
+		while (sc.hasNext()) {
+			loader.addNoiseWord(sc.next());
+		}
+		sc.close();
+		shards = new Shard[numShards];
+		for (int s=0; s < numShards; s++) {
+			LittleSearchEngine engine = new LittleSearchEngine(true, positional);
+			engine.autoCompact = false;
+			shards[s] = new Shard(engine);
+		}
+		workers = Executors.newFixedThreadPool(numShards, r -> {
+			Thread t = new Thread(r, "shard-worker");
+			t.setDaemon(true);
+			return t;
+		});
+		loaders = Executors.newFixedThreadPool(numShards, r -> {
+			Thread t = new Thread(r, "shard-loader");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Returns the number of shards.
+	 *
+	 * @return Number of shards
+	 */
+	public int shardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * Returns the shard a document goes to.
+	 *
+	 * @param docFile Name of the document file
+	 * @return Shard
+	 */
+	private Shard shardOf(String docFile) {
+		return shards[(docFile.hashCode() & 0x7fffffff) % shards.length];
+	}
+
+	/**
+	 * Adds a single document to its shard.
+	 *
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @throws IllegalArgumentException If the document is already indexed
+	 */
+	public void addDocument(String docFile)
+	throws FileNotFoundException {
+		HashMap<String,Occurrence> kws = loader.loadKeyWords(docFile);
+		Shard shard = shardOf(docFile);
+		synchronized (writeLock) {
+			if (shard.engine.documents.find(docFile) != -1) {
+				throw new IllegalArgumentException(docFile + " is already indexed");
+			}
+			shard.add(docFile, ordinals++);
+			shard.engine.mergeKeyWords(kws);
+		}
+	}
+
+	/**
+	 * Adds all documents listed in a file, in order. Each shard loads its own documents, all
+	 * shards at the same time; once all documents are loaded, ordinals are handed out in list
+	 * order, and each shard merges its own documents, all shards at the same time.
+	 *
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk,
+	 *         in which case no document is added
+	 * @throws IllegalArgumentException If a document is already indexed
+	 */
+	public void addDocuments(String docsFile)
+	throws FileNotFoundException {
+		ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext()) {
+			docs.add(sc.next());
+		}
+		sc.close();
+
+		synchronized (writeLock) {
+			HashSet<String> seen = new HashSet<String>();
+			ArrayList<ArrayList<String>> names = new ArrayList<ArrayList<String>>(shards.length);
+			for (int s=0; s < shards.length; s++) {
+				names.add(new ArrayList<String>());
+			}
+			for (String doc : docs) {
+				if (!seen.add(doc) || shardOf(doc).engine.documents.find(doc) != -1) {
+					throw new IllegalArgumentException(doc + " is already indexed");
+				}
+			}
+			for (String doc : docs) {
+				names.get((doc.hashCode() & 0x7fffffff) % shards.length).add(doc);
+			}
+
+			// all documents are loaded before any is added, so that one that can not be
+			// loaded leaves the shards and the ordinals as they were
+			ArrayList<Future<ArrayList<HashMap<String,Occurrence>>>> loads =
+				new ArrayList<Future<ArrayList<HashMap<String,Occurrence>>>>(shards.length);
+			for (int s=0; s < shards.length; s++) {
+				final ArrayList<String> shardDocs = names.get(s);
+				loads.add(loaders.submit(() -> {
+					ArrayList<HashMap<String,Occurrence>> kws =
+						new ArrayList<HashMap<String,Occurrence>>(shardDocs.size());
+					for (String doc : shardDocs) {
+						kws.add(loader.loadKeyWords(doc));
+					}
+					return kws;
+				}));
+			}
+			ArrayList<ArrayList<HashMap<String,Occurrence>>> loaded =
+				new ArrayList<ArrayList<HashMap<String,Occurrence>>>(shards.length);
+			try {
+				for (Future<ArrayList<HashMap<String,Occurrence>>> load : loads) {
+					loaded.add(get(load));
+				}
+			} catch (UncheckedIOException e) {
+				if (e.getCause() instanceof FileNotFoundException) {
+					throw (FileNotFoundException)e.getCause();
+				}
+				throw e;
+			}
+
+			// ordinals are handed out in list order
+			ArrayList<ArrayList<Integer>> ords = new ArrayList<ArrayList<Integer>>(shards.length);
+			for (int s=0; s < shards.length; s++) {
+				ords.add(new ArrayList<Integer>());
+			}
+			for (String doc : docs) {
+				ords.get((doc.hashCode() & 0x7fffffff) % shards.length).add(ordinals++);
+			}
+
+			ArrayList<Future<?>> merges = new ArrayList<Future<?>>(shards.length);
+			for (int s=0; s < shards.length; s++) {
+				final Shard shard = shards[s];
+				final ArrayList<String> shardDocs = names.get(s);
+				final ArrayList<Integer> shardOrds = ords.get(s);
+				final ArrayList<HashMap<String,Occurrence>> kws = loaded.get(s);
+				merges.add(loaders.submit(() -> {
+					for (int d=0; d < shardDocs.size(); d++) {
+						shard.add(shardDocs.get(d), shardOrds.get(d));
+						shard.engine.mergeKeyWords(kws.get(d));
+					}
+				}));
+			}
+			for (Future<?> merge : merges) {
+				get(merge);
+			}
+		}
+	}
+
+	/**
+	 * Removes a single document from the index. As in LittleSearchEngine, removal is lazy,
+	 * and postings are dropped, from all shards at once, once enough documents have been
+	 * removed.
+	 *
+	 * @param docFile Name of the document file
+	 * @return True if the document was in the index
+	 */
+	public boolean removeDocument(String docFile) {
+		synchronized (writeLock) {
+			if (!shardOf(docFile).engine.removeDocument(docFile)) {
+				return false;
+			}
+			pendingDeletes++;
+			if (pendingDeletes > LittleSearchEngine.COMPACT_RATIO*ordinals) {
+				for (Shard shard : shards) {
+					shard.engine.compact();
+				}
+				pendingDeletes = 0;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Re-indexes a single document whose contents have changed. The old version is removed,
+	 * and the new version is added with a new ordinal.
+	 *
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	public void updateDocument(String docFile)
+	throws FileNotFoundException {
+		HashMap<String,Occurrence> kws = loader.loadKeyWords(docFile);
+		Shard shard = shardOf(docFile);
+		synchronized (writeLock) {
+			removeDocument(docFile);
+			shard.add(docFile, ordinals++);
+			shard.engine.mergeKeyWords(kws);
+		}
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", over all shards. See LittleSearchEngine.top5search.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of NAMES of documents in which either kw1 or kw2 occurs, arranged in descending order of
+	 *         frequencies. The result size is limited to 5 documents. If there are no matching documents,
+	 *         the result is null.
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2) {
+		ArrayList<String> finDocs = search(Query.anyOf(kw1, kw2), 5);
+		return finDocs.isEmpty() ? null : finDocs;
+	}
+
+	/**
+	 * Ranked search result for "kw1 or kw2", over all shards. See LittleSearchEngine.top5search.
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @param scoring Scoring function
+	 * @return List of NAMES of the top 5 documents in which either kw1 or kw2 occurs, highest
+	 *         score first. If there are no matching documents, the result is null.
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2, Scoring scoring) {
+		ArrayList<String> finDocs = rankedSearch(Query.anyOf(kw1, kw2), 5, scoring);
+		return finDocs.isEmpty() ? null : finDocs;
+	}
+
+	/**
+	 * Searches all shards for the top k documents that match a query. See
+	 * LittleSearchEngine.search.
+	 *
+	 * @param q Query
+	 * @param k Maximum number of documents to return
+	 * @return List of NAMES of the top k matching documents, best first. Empty if no documents match.
+	 */
+	public ArrayList<String> search(final Query q, final int k) {
+		ArrayList<Callable<ArrayList<LittleSearchEngine.Hit>>> tasks =
+			new ArrayList<Callable<ArrayList<LittleSearchEngine.Hit>>>(shards.length);
+		for (final Shard shard : shards) {
+			tasks.add(() -> shard.engine.searchHits(q, k));
+		}
+		return gather(tasks, k);
+	}
+
+	/**
+	 * Searches all shards for the top k documents that match a query, ranked on a relevance
+	 * score. Each shard scores its documents with the statistics of the whole collection. See
+	 * LittleSearchEngine.rankedSearch.
+	 *
+	 * @param q Query
+	 * @param k Maximum number of documents to return
+	 * @param scoring Scoring function
+	 * @return List of NAMES of the top k matching documents, highest score first, with ties going
+	 *         to the document that was indexed first. Empty if no documents match.
+	 */
+	public ArrayList<String> rankedSearch(final Query q, final int k, final Scoring scoring) {
+		// statistics of the whole collection, each shard's read after its version
+		final long[] versions = new long[shards.length];
+		int liveCount = 0;
+		long totalLength = 0;
+		final int[] dfs = new int[q.terms.size()];
+		for (int s=0; s < shards.length; s++) {
+			LittleSearchEngine engine = shards[s].engine;
+			versions[s] = engine.documents.version();
+			liveCount += engine.documents.liveCount();
+			totalLength += engine.documents.totalLength();
+			for (int t=0; t < dfs.length; t++) {
+				PostingList occs = engine.postings(q.terms.get(t));
+				if (occs != null) {
+					dfs[t] += occs.size();
+				}
+			}
+		}
+
+		ArrayList<Callable<ArrayList<LittleSearchEngine.Hit>>> tasks =
+			new ArrayList<Callable<ArrayList<LittleSearchEngine.Hit>>>(shards.length);
+		for (int s=0; s < shards.length; s++) {
+			final LittleSearchEngine engine = shards[s].engine;
+			final Ranker r = engine.ranker(versions[s], liveCount, totalLength);
+			tasks.add(() -> engine.rankedHits(q, k, scoring, r, dfs.clone()));
+		}
+		return gather(tasks, k);
+	}
+
+	/**
+	 * Runs the shards' part of a search, all shards at once, and merges their results.
+	 *
+	 * @param tasks Search of each shard, in shard order
+	 * @param k Maximum number of documents to return
+	 * @return List of NAMES of the top k documents, best first
+	 */
+	private ArrayList<String> gather(ArrayList<Callable<ArrayList<LittleSearchEngine.Hit>>> tasks, int k) {
+		ArrayList<Future<ArrayList<LittleSearchEngine.Hit>>> results =
+			new ArrayList<Future<ArrayList<LittleSearchEngine.Hit>>>(tasks.size());
+		for (Callable<ArrayList<LittleSearchEngine.Hit>> task : tasks) {
+			results.add(workers.submit(task));
+		}
+		ArrayList<Hit> hits = new ArrayList<Hit>();
+		for (int s=0; s < results.size(); s++) {
+			int[] ords = shards[s].ordinals;
+			for (LittleSearchEngine.Hit h : get(results.get(s))) {
+				hits.add(new Hit(h, shards[s].engine.document(h.doc), ords[h.doc]));
+			}
+		}
+		Collections.sort(hits);
+		ArrayList<String> finDocs = new ArrayList<String>(Math.min(hits.size(), Math.max(k, 0)));
+		for (int i=0; i < hits.size() && i < k; i++) {
+			finDocs.add(hits.get(i).document);
+		}
+		return finDocs;
+	}
+
+	/**
+	 * Waits for the result of a shard's task, passing on what it threw, with checked
+	 * IOExceptions wrapped in an UncheckedIOException.
+	 *
+	 * @param f Result of the task
+	 * @return Value returned by the task
+	 */
+	private static <T> T get(Future<T> f) {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting for a shard", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			if (cause instanceof IOException) {
+				throw new UncheckedIOException((IOException)cause);
+			}
+			throw new IllegalStateException("shard failed", cause);
+		}
+	}
+
+	/**
+	 * Stops the worker threads. The index can not be used after this.
+	 */
+	public void close() {
+		workers.shutdownNow();
+		loaders.shutdownNow();
+	}
+}
@@ -0,0 +1,247 @@
+package search;
+
+import java.util.*;
+
+/**
+ * The keywords of an index in a trie, for looking up keywords by prefix, by wildcard pattern,
+ * or by spelling within one edit. The trie is stored in a few flat arrays, nodes in breadth
+ * first order, so that the children of a node are next to each other, sorted on their edge
+ * characters, and are found by binary search. Keywords are numbered in sorted order, and the
+ * keywords under any node have consecutive numbers, so a prefix lookup is a walk down the
+ * trie followed by a slice of the sorted keywords. The dictionary is immutable; it is rebuilt
+ * from scratch when keywords are added or dropped.
+ *
+ */
+class TermDictionary {
+
+	/**
+	 * Keywords in sorted order.
+	 */
+	private String[] terms;
+
+	/**
+	 * Children of node n are nodes firstChild[n] to firstChild[n+1]-1. Node 0 is the root.
+	 */
+	private int[] firstChild;
+
+	/**
+	 * Character on the edge into each node.
+	 */
+	private char[] label;
+
+	/**
+	 * Number of the keyword that ends at each node, -1 if none does.
+	 */
+	private int[] term;
+
+	/**
+	 * Version of the index keywords this dictionary was built from, set by the index.
+	 */
+	long version;
+
+	/**
+	 * Builds the dictionary of a set of keywords.
+	 *
+	 * @param keywords Keywords
+	 */
+	TermDictionary(Collection<String> keywords) {
+		terms = keywords.toArray(new String[0]);
+		Arrays.sort(terms);
+
+		int cap = 16;
+		firstChild = new int[cap+1];
+		label = new char[cap];
+		term = new int[cap];
+		// node n covers the keywords lo[n]..hi[n]-1, which all have the same first depth[n] chars
+		int[] lo = new int[cap], hi = new int[cap], depth = new int[cap];
+		hi[0] = terms.length;
+		int nodes = 1;
+		for (int n=0; n < nodes; n++) {
+			firstChild[n] = nodes;
+			int i = lo[n], d = depth[n];
+			term[n] = -1;
+			if (i < hi[n] && terms[i].length() == d) {
+				term[n] = i++;
+			}
+			while (i < hi[n]) {
+				char ch = terms[i].charAt(d);
+				int j = i+1;
+				while (j < hi[n] && terms[j].charAt(d) == ch) {
+					j++;
+				}
+				if (nodes == cap) {
+					cap *= 2;
+					firstChild = Arrays.copyOf(firstChild, cap+1);
+					label = Arrays.copyOf(label, cap);
+					term = Arrays.copyOf(term, cap);
+					lo = Arrays.copyOf(lo, cap);
+					hi = Arrays.copyOf(hi, cap);
+					depth = Arrays.copyOf(depth, cap);
+				}
+				label[nodes] = ch;
+				lo[nodes] = i;
+				hi[nodes] = j;
+				depth[nodes] = d+1;
+				nodes++;
+				i = j;
+			}
+		}
+		firstChild[nodes] = nodes;
+		firstChild = Arrays.copyOf(firstChild, nodes+1);
+		label = Arrays.copyOf(label, nodes);
+		term = Arrays.copyOf(term, nodes);
+	}
+
+	/**
+	 * Returns the number of keywords.
+	 *
+	 * @return Number of keywords
+	 */
+	int size() {
+		return terms.length;
+	}
+
+	/**
+	 * Returns the keywords that start with a prefix.
+	 *
+	 * @param prefix Prefix
+	 * @return Matching keywords, in sorted order
+	 */
+	List<String> prefix(String prefix) {
+		if (terms.length == 0) {
+			return Collections.emptyList();
+		}
+		int n = 0;
+		for (int i=0; i < prefix.length() && n != -1; i++) {
+			n = child(n, prefix.charAt(i));
+		}
+		if (n == -1) {
+			return Collections.emptyList();
+		}
+		// the first keyword under n is down the leftmost path, the last down the rightmost
+		int first = n;
+		while (term[first] == -1) {
+			first = firstChild[first];
+		}
+		int last = n;
+		while (firstChild[last] != firstChild[last+1]) {
+			last = firstChild[last+1]-1;
+		}
+		return Collections.unmodifiableList(Arrays.asList(terms).subList(term[first], term[last]+1));
+	}
+
+	/**
+	 * Returns the keywords that match a wildcard pattern, where '*' stands for any number of
+	 * characters, and '?' for exactly one.
+	 *
+	 * @param pattern Pattern
+	 * @return Matching keywords, in sorted order
+	 */
+	List<String> wildcard(String pattern) {
+		BitSet found = new BitSet();
+		wildcard(0, pattern, 0, found, new HashSet<Long>());
+		return collect(found);
+	}
+
+	/**
+	 * Finds the keywords under node n that match the pattern from index p on.
+	 */
+	private void wildcard(int n, String pattern, int p, BitSet found, HashSet<Long> visited) {
+		// a node can be reached with the same pattern index along several paths through '*'
+		if (!visited.add(((long)n << 32) | p)) {
+			return;
+		}
+		if (p == pattern.length()) {
+			if (term[n] != -1) {
+				found.set(term[n]);
+			}
+			return;
+		}
+		char ch = pattern.charAt(p);
+		if (ch == '*') {
+			wildcard(n, pattern, p+1, found, visited);
+			for (int c=firstChild[n]; c < firstChild[n+1]; c++) {
+				wildcard(c, pattern, p, found, visited);
+			}
+		} else if (ch == '?') {
+			for (int c=firstChild[n]; c < firstChild[n+1]; c++) {
+				wildcard(c, pattern, p+1, found, visited);
+			}
+		} else {
+			int c = child(n, ch);
+			if (c != -1) {
+				wildcard(c, pattern, p+1, found, visited);
+			}
+		}
+	}
+
+	/**
+	 * Returns the keywords that can be turned into a word with at most one edit: inserting,
+	 * deleting or replacing a character.
+	 *
+	 * @param word Word
+	 * @return Matching keywords, in sorted order, the word itself included if it is a keyword
+	 */
+	List<String> fuzzy(String word) {
+		BitSet found = new BitSet();
+		// row[i] is the edit distance from the path to the node to the first i chars of word
+		int[] row = new int[word.length()+1];
+		for (int i=0; i < row.length; i++) {
+			row[i] = i;
+		}
+		fuzzy(0, word, row, found);
+		return collect(found);
+	}
+
+	/**
+	 * Finds the keywords under node n within one edit of word, given the edit distance row
+	 * of the path to n.
+	 */
+	private void fuzzy(int n, String word, int[] row, BitSet found) {
+		if (term[n] != -1 && row[word.length()] <= 1) {
+			found.set(term[n]);
+		}
+		for (int c=firstChild[n]; c < firstChild[n+1]; c++) {
+			int[] next = new int[row.length];
+			next[0] = row[0]+1;
+			int min = next[0];
+			for (int i=1; i < row.length; i++) {
+				int replace = row[i-1] + (word.charAt(i-1) == label[c] ? 0 : 1);
+				next[i] = Math.min(replace, Math.min(row[i], next[i-1]) + 1);
+				min = Math.min(min, next[i]);
+			}
+			if (min <= 1) {
+				fuzzy(c, word, next, found);
+			}
+		}
+	}
+
+	/**
+	 * Returns the child of node n on the edge with the given character, -1 if there is none.
+	 */
+	private int child(int n, char ch) {
+		int lo = firstChild[n], hi = firstChild[n+1]-1;
+		while (lo <= hi) {
+			int mid = (lo+hi) >>> 1;
+			if (label[mid] < ch) {
+				lo = mid+1;
+			} else if (label[mid] > ch) {
+				hi = mid-1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the keywords with the given numbers, in sorted order.
+	 */
+	private List<String> collect(BitSet found) {
+		ArrayList<String> list = new ArrayList<String>(found.cardinality());
+		for (int t = found.nextSetBit(0); t >= 0; t = found.nextSetBit(t+1)) {
+			list.add(terms[t]);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,168 @@
+package search;
+
+/**
+ * A hash table of terms that can be looked up directly from a range of a char array, so
+ * that a token does not have to be turned into a String to be found. Every term added to
+ * the table gets a dense integer id, 0 for the first term, 1 for the next, and so on. A
+ * String for a term is only created when the term is first added.
+ *
+ */
+class TermTable {
+
+	/**
+	 * Open addressing slots, each holding term id + 1, or 0 if the slot is empty.
+	 * The number of slots is always a power of 2.
+	 */
+	private int[] slots;
+
+	/**
+	 * Terms, indexed by id.
+	 */
+	private String[] terms;
+
+	/**
+	 * Hash codes of terms, indexed by id.
+	 */
+	private int[] hashes;
+
+	/**
+	 * Number of terms in the table.
+	 */
+	private int size;
+
+	/**
+	 * Initializes an empty table.
+	 */
+	TermTable() {
+		slots = new int[64];
+		terms = new String[32];
+		hashes = new int[32];
+	}
+
+	/**
+	 * Returns the number of terms in this table.
+	 *
+	 * @return Number of terms
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the term with the given id.
+	 *
+	 * @param id Term id, 0..size()-1
+	 * @return Term
+	 */
+	String term(int id) {
+		return terms[id];
+	}
+
+	/**
+	 * Looks up the term held in chars[off..off+len-1].
+	 *
+	 * @param chars Characters of the term
+	 * @param off Start of the term
+	 * @param len Length of the term
+	 * @return Id of the term, -1 if it is not in the table
+	 */
+	int find(char[] chars, int off, int len) {
+		int h = hash(chars, off, len);
+		int mask = slots.length-1;
+		for (int i=h & mask; slots[i] != 0; i=(i+1) & mask) {
+			int id = slots[i]-1;
+			if (hashes[id] == h && matches(terms[id], chars, off, len)) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds the term held in chars[off..off+len-1], if it is not already in the table.
+	 *
+	 * @param chars Characters of the term
+	 * @param off Start of the term
+	 * @param len Length of the term
+	 * @return Id of the term
+	 */
+	int add(char[] chars, int off, int len) {
+		int h = hash(chars, off, len);
+		int mask = slots.length-1;
+		int i = h & mask;
+		for (; slots[i] != 0; i=(i+1) & mask) {
+			int id = slots[i]-1;
+			if (hashes[id] == h && matches(terms[id], chars, off, len)) {
+				return id;
+			}
+		}
+		if (size == terms.length) {
+			String[] t = new String[size*2];
+			System.arraycopy(terms, 0, t, 0, size);
+			terms = t;
+			int[] hs = new int[size*2];
+			System.arraycopy(hashes, 0, hs, 0, size);
+			hashes = hs;
+		}
+		terms[size] = new String(chars, off, len);
+		hashes[size] = h;
+		slots[i] = ++size;
+		if (size*2 > slots.length) {
+			rehash();
+		}
+		return size-1;
+	}
+
+	/**
+	 * Adds the given term, if it is not already in the table.
+	 *
+	 * @param term Term to add
+	 * @return Id of the term
+	 */
+	int add(String term) {
+		char[] chars = term.toCharArray();
+		return add(chars, 0, chars.length);
+	}
+
+	/**
+	 * Doubles the number of slots and re-inserts all terms.
+	 */
+	private void rehash() {
+		slots = new int[slots.length*2];
+		int mask = slots.length-1;
+		for (int id=0; id < size; id++) {
+			int i = hashes[id] & mask;
+			while (slots[i] != 0) {
+				i = (i+1) & mask;
+			}
+			slots[i] = id+1;
+		}
+	}
+
+	/**
+	 * Hash code of chars[off..off+len-1], same as String.hashCode, spread so that the
+	 * low bits used to pick a slot depend on all characters.
+	 */
+	private static int hash(char[] chars, int off, int len) {
+		int h = 0;
+		for (int i=off; i < off+len; i++) {
+			h = 31*h + chars[i];
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Tells whether term is the same as chars[off..off+len-1].
+	 */
+	private static boolean matches(String term, char[] chars, int off, int len) {
+		if (term.length() != len) {
+			return false;
+		}
+		for (int i=0; i < len; i++) {
+			if (term.charAt(i) != chars[off+i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,110 @@
+package search;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Generates a synthetic corpus for benchmarks: documents of random words drawn from a fixed
+ * vocabulary with Zipf distributed frequencies, so that a few words are very common and most
+ * are rare, as in natural text. Some words are capitalized or followed by punctuation, so that
+ * the keyword rules get exercised as well.
+ *
+ */
+class ZipfCorpus {
+
+	/**
+	 * Cumulative probability of the words of rank 0..vocabulary-1.
+	 */
+	private double[] cdf;
+
+	private Random random;
+
+	/**
+	 * Initializes a generator.
+	 *
+	 * @param vocabulary Number of distinct words
+	 * @param skew Zipf exponent; the word of rank r is drawn with probability proportional
+	 *        to 1/(r+1)^skew, so 0 gives uniform frequencies and larger values more skew
+	 * @param seed Random seed, the same seed giving the same corpus
+	 */
+	ZipfCorpus(int vocabulary, double skew, long seed) {
+		if (vocabulary < 1) {
+			throw new IllegalArgumentException("vocabulary must have at least one word, got " + vocabulary);
+		}
+		cdf = new double[vocabulary];
+		double sum = 0;
+		for (int r=0; r < vocabulary; r++) {
+			sum += 1 / Math.pow(r+1, skew);
+			cdf[r] = sum;
+		}
+		for (int r=0; r < vocabulary; r++) {
+			cdf[r] /= sum;
+		}
+		random = new Random(seed);
+	}
+
+	/**
+	 * Returns the word of a rank: all letters, and never a noise word, since it starts with
+	 * "zq".
+	 *
+	 * @param rank Rank, 0 for the most common word
+	 * @return Word
+	 */
+	static String word(int rank) {
+		StringBuilder sb = new StringBuilder("zq");
+		do {
+			sb.append((char)('a' + rank%26));
+			rank /= 26;
+		} while (rank > 0);
+		return sb.toString();
+	}
+
+	/**
+	 * Draws the rank of a random word.
+	 *
+	 * @return Rank
+	 */
+	int nextRank() {
+		int r = Arrays.binarySearch(cdf, random.nextDouble());
+		return r >= 0 ? r : Math.min(-r-1, cdf.length-1);
+	}
+
+	/**
+	 * Writes a corpus of documents d0.txt, d1.txt, ... to a directory, and a docs.txt file
+	 * listing them.
+	 *
+	 * @param dir Directory to write to; it must exist
+	 * @param docs Number of documents
+	 * @param wordsPerDoc Number of words in each document
+	 * @return Name of the docs.txt file
+	 * @throws IOException If a file can not be written
+	 */
+	String write(File dir, int docs, int wordsPerDoc)
+	throws IOException {
+		File list = new File(dir, "docs.txt");
+		try (PrintWriter names = new PrintWriter(Files.newBufferedWriter(list.toPath(), StandardCharsets.UTF_8))) {
+			for (int d=0; d < docs; d++) {
+				File doc = new File(dir, "d" + d + ".txt");
+				try (Writer out = Files.newBufferedWriter(doc.toPath(), StandardCharsets.UTF_8)) {
+					for (int w=0; w < wordsPerDoc; w++) {
+						String word = word(nextRank());
+						int style = random.nextInt(20);
+						if (style == 0) {
+							word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+						} else if (style == 1) {
+							word += ",";
+						} else if (style == 2) {
+							word += ".";
+						}
+						out.write(word);
+						out.write(w % 12 == 11 ? '\n' : ' ');
+					}
+				}
+				names.println(doc.getPath());
+			}
+		}
+		return list.getPath();
+	}
+}